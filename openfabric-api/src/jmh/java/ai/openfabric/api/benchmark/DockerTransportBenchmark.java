@@ -0,0 +1,106 @@
+package ai.openfabric.api.benchmark;
+
+import ai.openfabric.api.service.DockerEndpoint;
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.command.StatsCmd;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Statistics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Docker clients of an endpoint over each transport, with as many concurrent requests as the stats poll
+ * threads of a host
+ * <p>
+ * By default they talk to a stub daemon on the loopback that answers with captured responses after the given
+ * latency. {@code -p dockerHost=unix:///var/run/docker.sock} points them at a real daemon instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(16)
+public class DockerTransportBenchmark {
+
+    private static final String STUB = "stub";
+
+    @Param({DockerEndpoint.TRANSPORT_APACHE, DockerEndpoint.TRANSPORT_POOLED})
+    private String transport;
+
+    @Param({STUB})
+    private String dockerHost;
+
+    // milliseconds the stub daemon takes to answer
+    @Param({"0", "5"})
+    private int latency;
+
+    private StubDockerDaemon stub;
+    private DockerEndpoint endpoint;
+    private DockerClient dockerClient;
+    private String containerId;
+
+    @Setup
+    public void setup() {
+        String url = dockerHost;
+        if (STUB.equals(dockerHost)) {
+            stub = new StubDockerDaemon(latency);
+            url = stub.getUrl();
+        }
+
+        endpoint = new DockerEndpoint(Fixtures.HOST, url, 1, transport,
+                new DockerEndpoint.PoolSettings(100, 100, 60000), new SimpleMeterRegistry());
+        dockerClient = endpoint.getClient();
+        List<Container> containers = dockerClient.listContainersCmd().exec();
+        if (containers.isEmpty()) {
+            throw new IllegalStateException("No running container to request stats of on " + url);
+        }
+        containerId = containers.get(0).getId();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        endpoint.close();
+        if (stub != null) {
+            stub.close();
+        }
+    }
+
+    @Benchmark
+    public List<Container> listContainers() {
+        return dockerClient.listContainersCmd().exec();
+    }
+
+    // how the stats poll mode requests a sample
+    @Benchmark
+    public Statistics stats() throws InterruptedException {
+        StatsCallback callback = new StatsCallback();
+        try (StatsCmd statsCmd = dockerClient.statsCmd(containerId)) {
+            statsCmd.withNoStream(true).exec(callback);
+            callback.awaitCompletion(5, TimeUnit.SECONDS);
+        }
+        return callback.statistics;
+    }
+
+    private static class StatsCallback extends ResultCallback.Adapter<Statistics> {
+
+        private volatile Statistics statistics;
+
+        @Override
+        public void onNext(Statistics statistics) {
+            this.statistics = statistics;
+        }
+    }
+}
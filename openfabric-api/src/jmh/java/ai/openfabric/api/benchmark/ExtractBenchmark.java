@@ -0,0 +1,67 @@
+package ai.openfabric.api.benchmark;
+
+import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.model.WorkerStatistics;
+import ai.openfabric.api.service.DockerAPIService;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Statistics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the refresh cycle does per container, turning Docker's responses into a worker and its statistics
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ExtractBenchmark {
+
+    @State(Scope.Thread)
+    public static class StatsState {
+
+        @Param({Fixtures.STATS_CGROUP_V1, Fixtures.STATS_CGROUP_V2})
+        private String stats;
+
+        private Statistics statistics;
+
+        // the cycle reuses the statistics of a worker
+        private final WorkerStatistics workerStatistics = new WorkerStatistics();
+
+        @Setup
+        public void setup() {
+            statistics = Fixtures.statistics(stats);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class InfoState {
+
+        private Container container;
+
+        @Setup
+        public void setup() {
+            container = Fixtures.containers(1).get(0);
+        }
+    }
+
+    @Benchmark
+    public WorkerStatistics extractStats(StatsState state) {
+        DockerAPIService.extractStats(state.statistics, state.workerStatistics);
+        return state.workerStatistics;
+    }
+
+    @Benchmark
+    public Worker extractInfo(InfoState state) {
+        // the cycle builds a new worker per container
+        Worker worker = new Worker();
+        DockerAPIService.extractInfo(state.container, worker);
+        return worker;
+    }
+}
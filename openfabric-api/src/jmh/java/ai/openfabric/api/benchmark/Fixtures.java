@@ -0,0 +1,157 @@
+package ai.openfabric.api.benchmark;
+
+import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.model.WorkerStatistics;
+import ai.openfabric.api.service.DockerAPIService;
+import ai.openfabric.api.service.DockerEventService;
+import ai.openfabric.api.service.StatsCollectorService;
+import ai.openfabric.api.service.ThreadModeService;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Statistics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * Synthetic containers and statistics, built from responses captured from a Docker Engine
+ */
+final class Fixtures {
+
+    static final String HOST = "bench";
+
+    // stats of a cgroup v1 host, with Read, Write, Sync, Async and Total entries per device
+    static final String STATS_CGROUP_V1 = "stats-cgroup1.json";
+    // stats of a cgroup v2 host, lower case ops and no page cache in the memory stats
+    static final String STATS_CGROUP_V2 = "stats-cgroup2.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private Fixtures() {
+    }
+
+    /**
+     * @param name one of the STATS_ constants
+     * @return the captured statistics
+     */
+    static Statistics statistics(String name) {
+        try {
+            return MAPPER.treeToValue(read(name), Statistics.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param count how many containers
+     * @return distinct containers as listed by Docker, every tenth one exited
+     */
+    static List<Container> containers(int count) {
+        ObjectNode template = read("container.json");
+        List<Container> containers = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                ObjectNode container = template.deepCopy();
+                container.put("Id", id("", i));
+                ((ArrayNode) container.get("Names")).removeAll().add("/worker-" + i);
+                container.put("Created", template.get("Created").asLong() + i);
+                if (i % 10 == 9) {
+                    container.put("State", "exited");
+                    container.put("Status", "Exited (0) 2 hours ago");
+                    container.putArray("Ports");
+                }
+                containers.add(MAPPER.treeToValue(container, Container.class));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return containers;
+    }
+
+    /**
+     * @param prefix what the ids start with, so they can be told apart from real ones
+     * @param count how many workers
+     * @return workers of the containers, each with statistics
+     */
+    static List<Worker> workers(String prefix, int count) {
+        Statistics statistics = statistics(STATS_CGROUP_V1);
+        List<Worker> workers = new ArrayList<>(count);
+        int i = 0;
+        for (Container container : containers(count)) {
+            Worker worker = new Worker();
+            DockerAPIService.extractInfo(container, worker);
+            worker.setId(id(prefix, i++));
+            worker.setHost(HOST);
+            WorkerStatistics workerStatistics = new WorkerStatistics();
+            DockerAPIService.extractStats(statistics, workerStatistics);
+            workerStatistics.setWorker(worker);
+            worker.setWorkerStatistics(workerStatistics);
+            workers.add(worker);
+        }
+        return workers;
+    }
+
+    /**
+     * @param dockerAPIService where the statistics are polled from
+     * @param threadModeService how the poll threads are made
+     * @param threads poll threads per host
+     * @return a started collector that polls, every worker due on every refresh, call shutdown() when done
+     */
+    static StatsCollectorService statsCollector(DockerAPIService dockerAPIService,
+                                                ThreadModeService threadModeService, int threads) {
+        StatsCollectorService statsCollectorService = new StatsCollectorService();
+        setField(statsCollectorService, "statsMode", StatsCollectorService.MODE_POLL);
+        setField(statsCollectorService, "maxStreams", 1000);
+        setField(statsCollectorService, "pollThreads", threads);
+        setField(statsCollectorService, "pollTimeout", 5000L);
+        setField(statsCollectorService, "activeInterval", 0L);
+        setField(statsCollectorService, "idleInterval", 0L);
+        setField(statsCollectorService, "stoppedInterval", 0L);
+        setField(statsCollectorService, "idleCpu", 1.0);
+        setField(statsCollectorService, "dockerAPIService", dockerAPIService);
+        setField(statsCollectorService, "dockerEventService", mock(DockerEventService.class));
+        setField(statsCollectorService, "threadModeService", threadModeService);
+        setField(statsCollectorService, "meterRegistry", new SimpleMeterRegistry());
+        statsCollectorService.init();
+        return statsCollectorService;
+    }
+
+    /**
+     * @param name a fixture file, like one of the STATS_ constants
+     * @return the captured response as Docker sent it
+     */
+    static byte[] bytes(String name) {
+        try {
+            return MAPPER.writeValueAsBytes(read(name));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 64 characters, like a container id
+    private static String id(String prefix, int i) {
+        return prefix + String.format("%0" + (64 - prefix.length()) + "x", i);
+    }
+
+    private static ObjectNode read(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/docker/" + name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No fixture " + name);
+            }
+            return (ObjectNode) MAPPER.readTree(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ai.openfabric.api.benchmark;
+
+import ai.openfabric.api.model.FleetAggregate;
+import ai.openfabric.api.model.TopWorker;
+import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.model.WorkerStatistics;
+import ai.openfabric.api.service.FleetAggregateService;
+import ai.openfabric.api.service.StatsCollectorService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * A sample arriving at the fleet aggregates, and the aggregate and top-N reads, over a fleet whose CPU usage
+ * is random
+ * <p>
+ * The setup checks the top-N against a sort of the fleet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FleetAggregateBenchmark {
+
+    @Param({"50000"})
+    private int workers;
+
+    private FleetAggregateService fleetAggregateService;
+    private List<Worker> fleet;
+    private final Random random = new Random(42);
+    private int next;
+
+    @Setup
+    public void setup() {
+        fleetAggregateService = new FleetAggregateService();
+        setField(fleetAggregateService, "statsCollectorService", mock(StatsCollectorService.class));
+        fleetAggregateService.init();
+
+        fleet = Fixtures.workers("", workers);
+        fleetAggregateService.publish(Fixtures.HOST, fleet);
+        for (Worker worker : fleet) {
+            worker.getWorkerStatistics().setCpuUsage(random.nextFloat() * 100);
+            fleetAggregateService.onSample(worker.getId(), worker.getWorkerStatistics());
+        }
+
+        List<String> expected = fleet.stream().filter(worker -> "running".equals(worker.getState()))
+                .sorted(Comparator.comparing((Worker worker) -> worker.getWorkerStatistics().getCpuUsage()).reversed())
+                .limit(100).map(Worker::getId).collect(Collectors.toList());
+        List<String> actual = fleetAggregateService.top(FleetAggregateService.METRIC_CPU, 100).stream()
+                .map(TopWorker::getId).collect(Collectors.toList());
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException("Top workers differ from a sort of the fleet");
+        }
+    }
+
+    @Benchmark
+    public WorkerStatistics sample() {
+        WorkerStatistics sample = fleet.get(next++ % fleet.size()).getWorkerStatistics();
+        sample.setCpuUsage(random.nextFloat() * 100);
+        fleetAggregateService.onSample(sample.getWorker().getId(), sample);
+        return sample;
+    }
+
+    @Benchmark
+    public List<TopWorker> top() {
+        return fleetAggregateService.top(FleetAggregateService.METRIC_CPU, 10);
+    }
+
+    @Benchmark
+    public List<FleetAggregate> aggregateByState() {
+        return fleetAggregateService.aggregate(FleetAggregateService.GROUP_STATE);
+    }
+}
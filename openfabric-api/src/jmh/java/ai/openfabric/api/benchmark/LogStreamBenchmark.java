@@ -0,0 +1,113 @@
+package ai.openfabric.api.benchmark;
+
+import ai.openfabric.api.service.DockerAPIService;
+import ai.openfabric.api.service.DockerEndpoint;
+import ai.openfabric.api.service.LogStreamService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * Copying a whole container log to a client, from a stub daemon that generates it as it is sent
+ * <p>
+ * The client reads as fast as it can, or takes the given microseconds per write like a slow link. Either way
+ * only the frames of the queue are held at once, however large the log.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LogStreamBenchmark {
+
+    // bytes of the log, whole lines of 100 bytes
+    @Param({"250000000"})
+    private long logSize;
+
+    // microseconds the client takes per write
+    @Param({"0", "1"})
+    private int clientDelay;
+
+    private StubDockerDaemon stub;
+    private DockerEndpoint endpoint;
+    private LogStreamService logStreamService;
+
+    @Setup
+    public void setup() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        stub = new StubDockerDaemon(0, logSize);
+        endpoint = new DockerEndpoint(Fixtures.HOST, stub.getUrl(), 1, DockerEndpoint.TRANSPORT_POOLED,
+                new DockerEndpoint.PoolSettings(10, 10, 60000), meterRegistry);
+
+        DockerAPIService dockerAPIService = mock(DockerAPIService.class, withSettings().stubOnly());
+        when(dockerAPIService.getLongRunningClient(Fixtures.HOST)).thenReturn(endpoint.getLongRunningClient());
+
+        logStreamService = new LogStreamService();
+        setField(logStreamService, "maxStreams", 50);
+        setField(logStreamService, "maxFollowers", 4);
+        setField(logStreamService, "queueSize", 64);
+        setField(logStreamService, "timeout", 600000L);
+        setField(logStreamService, "dockerAPIService", dockerAPIService);
+        setField(logStreamService, "meterRegistry", meterRegistry);
+        logStreamService.init();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        endpoint.close();
+        stub.close();
+    }
+
+    @Benchmark
+    public long copyLog() throws IOException {
+        CountingOutputStream out = new CountingOutputStream(clientDelay * 1000L);
+        try (LogStreamService.LogStream stream = logStreamService.open(Fixtures.HOST, "bench", false, null, null)) {
+            stream.copyTo(out);
+        }
+        if (out.count != logSize) {
+            throw new IllegalStateException("Copied " + out.count + " of " + logSize + " bytes");
+        }
+        return out.count;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        private final long delay;  // nanoseconds per write
+        private long count;
+
+        CountingOutputStream(long delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+            if (delay > 0) {
+                long until = System.nanoTime() + delay;
+                while (System.nanoTime() < until) {
+                    // a busy wait, sleeping is far coarser than a microsecond
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ai.openfabric.api.benchmark;
+
+import ai.openfabric.api.repository.WorkerBatchWriter;
+import ai.openfabric.api.service.BackgroundUpdateService;
+import ai.openfabric.api.service.DockerAPIService;
+import ai.openfabric.api.service.FleetAggregateService;
+import ai.openfabric.api.service.RefreshLeaseService;
+import ai.openfabric.api.service.StatsCollectorService;
+import ai.openfabric.api.service.StatsHistoryService;
+import ai.openfabric.api.service.ThreadModeService;
+import ai.openfabric.api.service.WorkerChangeTracker;
+import ai.openfabric.api.service.WorkerSnapshotService;
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.command.ListContainersCmd;
+import com.github.dockerjava.api.command.StatsCmd;
+import com.github.dockerjava.api.model.Statistics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.Answers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * A full {@link BackgroundUpdateService#updateDB} cycle of one host, against a Docker client that answers
+ * instantly with synthetic containers and statistics
+ * <p>
+ * Statistics are polled and every worker is due on every cycle, the worst case of the cadences. The database
+ * writer does nothing, {@link WorkerBatchWriterBenchmark} measures it, and the history is disabled. After the
+ * first cycle nothing changes, so this is the steady state the collector spends its time in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RefreshCycleBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int containers;
+
+    private BackgroundUpdateService backgroundUpdateService;
+    private StatsCollectorService statsCollectorService;
+
+    @Setup
+    public void setup() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        DockerAPIService dockerAPIService = dockerAPIService(Fixtures.statistics(Fixtures.STATS_CGROUP_V1));
+
+        statsCollectorService = Fixtures.statsCollector(dockerAPIService,
+                new ThreadModeService(ThreadModeService.MODE_PLATFORM), 16);
+
+        WorkerChangeTracker workerChangeTracker = new WorkerChangeTracker(meterRegistry);
+        setField(workerChangeTracker, "statsDelta", 0.05);
+        setField(workerChangeTracker, "cpuDelta", 1.0);
+
+        WorkerSnapshotService workerSnapshotService = new WorkerSnapshotService();
+        setField(workerSnapshotService, "enabled", true);
+
+        FleetAggregateService fleetAggregateService = new FleetAggregateService();
+        setField(fleetAggregateService, "statsCollectorService", statsCollectorService);
+        fleetAggregateService.init();
+
+        RefreshLeaseService refreshLeaseService = new RefreshLeaseService();
+        setField(refreshLeaseService, "mode", RefreshLeaseService.MODE_NONE);
+
+        backgroundUpdateService = new BackgroundUpdateService();
+        setField(backgroundUpdateService, "workerBatchWriter", mock(WorkerBatchWriter.class, withSettings().stubOnly()));
+        setField(backgroundUpdateService, "workerChangeTracker", workerChangeTracker);
+        setField(backgroundUpdateService, "statsHistoryService", new StatsHistoryService());
+        setField(backgroundUpdateService, "workerSnapshotService", workerSnapshotService);
+        setField(backgroundUpdateService, "dockerAPIService", dockerAPIService);
+        setField(backgroundUpdateService, "statsCollectorService", statsCollectorService);
+        setField(backgroundUpdateService, "fleetAggregateService", fleetAggregateService);
+        setField(backgroundUpdateService, "refreshLeaseService", refreshLeaseService);
+        setField(backgroundUpdateService, "meterRegistry", meterRegistry);
+    }
+
+    @TearDown
+    public void tearDown() {
+        statsCollectorService.shutdown();
+    }
+
+    @Benchmark
+    public void updateDB() {
+        backgroundUpdateService.updateDB(Fixtures.HOST);
+    }
+
+    // every request is answered on the calling thread, the stats callback completes before exec returns
+    private DockerAPIService dockerAPIService(Statistics statistics) {
+        ListContainersCmd listContainersCmd = mock(ListContainersCmd.class,
+                withSettings().stubOnly().defaultAnswer(Answers.RETURNS_SELF));
+        // exec() of a mock that returns itself would return the command, so it cannot go through when()
+        doReturn(Fixtures.containers(containers)).when(listContainersCmd).exec();
+
+        StatsCmd statsCmd = mock(StatsCmd.class, withSettings().stubOnly().defaultAnswer(Answers.RETURNS_SELF));
+        doAnswer(invocation -> {
+            ResultCallback<Statistics> callback = invocation.getArgument(0);
+            callback.onNext(statistics);
+            callback.onComplete();
+            return callback;
+        }).when(statsCmd).exec(any());
+
+        DockerClient dockerClient = mock(DockerClient.class, withSettings().stubOnly());
+        when(dockerClient.listContainersCmd()).thenReturn(listContainersCmd);
+        when(dockerClient.statsCmd(anyString())).thenReturn(statsCmd);
+
+        DockerAPIService dockerAPIService = mock(DockerAPIService.class, withSettings().stubOnly());
+        when(dockerAPIService.getHosts()).thenReturn(Collections.singleton(Fixtures.HOST));
+        when(dockerAPIService.getClient(Fixtures.HOST)).thenReturn(dockerClient);
+        return dockerAPIService;
+    }
+}
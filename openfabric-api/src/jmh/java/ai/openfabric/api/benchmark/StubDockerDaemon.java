@@ -0,0 +1,127 @@
+package ai.openfabric.api.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A Docker Engine on the loopback that answers with captured responses after a fixed latency
+ * <p>
+ * It lists a single container, answers its stats, starts or stops any container and streams a log of a given size
+ * for any container, generated as it is sent.
+ */
+final class StubDockerDaemon implements Closeable {
+
+    // connections that can wait to be accepted, as many as the benchmarks open at once
+    private static final int BACKLOG = 4096;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final int latency;
+    private final long logSize;
+
+    /**
+     * @param latency milliseconds every response takes
+     */
+    StubDockerDaemon(int latency) {
+        this(latency, 0);
+    }
+
+    /**
+     * @param latency milliseconds every response takes
+     * @param logSize bytes of the log of every container
+     */
+    StubDockerDaemon(int latency, long logSize) {
+        this.latency = latency;
+        this.logSize = logSize;
+        byte[] stats = Fixtures.bytes(Fixtures.STATS_CGROUP_V1);
+        byte[] containers = ("[" + new String(Fixtures.bytes("container.json"), StandardCharsets.UTF_8) + "]")
+                .getBytes(StandardCharsets.UTF_8);
+        // headers and body are written separately, without this every response waits for a delayed ack
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        // beyond 200 idle connections the server closes them, under the clients that pooled them
+        System.setProperty("sun.net.httpserver.maxIdleConnections", String.valueOf(BACKLOG));
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), BACKLOG);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            if (path.endsWith("/stats")) {
+                respond(exchange, 200, stats);
+            } else if (path.endsWith("/containers/json")) {
+                respond(exchange, 200, containers);
+            } else if (path.endsWith("/logs")) {
+                streamLog(exchange);
+            } else if (path.endsWith("/start") || path.endsWith("/stop")) {
+                respond(exchange, 204, null);
+            } else {
+                respond(exchange, 404, null);
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return the Docker host url of the stub
+     */
+    String getUrl() {
+        return "tcp://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // stdout frames of 100 byte lines, in the multiplexed format of a container without a tty
+    private void streamLog(HttpExchange exchange) throws IOException {
+        byte[] line = new byte[100];
+        Arrays.fill(line, (byte) 'x');
+        line[line.length - 1] = '\n';
+        byte[] frame = new byte[8 + line.length];
+        frame[0] = 1;
+        frame[7] = (byte) line.length;
+        System.arraycopy(line, 0, frame, 8, line.length);
+        exchange.getResponseHeaders().set("Content-Type", "application/vnd.docker.raw-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (long sent = 0; sent < logSize; sent += line.length) {
+                out.write(frame);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
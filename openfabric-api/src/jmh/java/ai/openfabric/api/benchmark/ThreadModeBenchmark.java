@@ -0,0 +1,185 @@
+package ai.openfabric.api.benchmark;
+
+import ai.openfabric.api.model.BulkJob;
+import ai.openfabric.api.model.BulkRequest;
+import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.repository.WorkerRepository;
+import ai.openfabric.api.service.BulkOperationService;
+import ai.openfabric.api.service.DockerAPIService;
+import ai.openfabric.api.service.DockerEndpoint;
+import ai.openfabric.api.service.StatsCollectorService;
+import ai.openfabric.api.service.ThreadModeService;
+import ai.openfabric.api.service.WorkerSnapshotService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * A load test of the blocking Docker calls on platform and virtual threads: bulk start and stop jobs and the
+ * stats fan-out of a poll cycle, against a stub daemon that takes the given latency per request
+ * <p>
+ * The concurrency is the size of the connection pool. On platform threads it is the bulk parallelism and the
+ * stats poll threads as well, virtual threads start a thread per call and only wait for the connection pool.
+ * Virtual threads need a JDK that has them, on an older one both modes run on platform threads, so run it on
+ * one with {@code -Pjmh.jvm=<java of JDK 21>}.
+ * <p>
+ * Next to the jobs and poll cycles per second, every iteration reports the platform threads it took: the most
+ * that were alive at once and the carrier threads of virtual threads among them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ThreadModeBenchmark {
+
+    @Param({ThreadModeService.MODE_PLATFORM, ThreadModeService.MODE_VIRTUAL})
+    private String threads;
+
+    @Param({"16", "1000"})
+    private int concurrency;
+
+    @Param({"1000"})
+    private int workers;
+
+    // milliseconds the stub daemon takes to answer
+    @Param({"10"})
+    private int latency;
+
+    private StubDockerDaemon stub;
+    private DockerEndpoint endpoint;
+    private BulkOperationService bulkOperationService;
+    private StatsCollectorService statsCollectorService;
+    private BulkRequest bulkRequest;
+    private List<Worker> fleet;
+
+    @Setup
+    public void setup() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ThreadModeService threadModeService = new ThreadModeService(threads);
+        stub = new StubDockerDaemon(latency);
+        endpoint = new DockerEndpoint(Fixtures.HOST, stub.getUrl(), 1, DockerEndpoint.TRANSPORT_POOLED,
+                new DockerEndpoint.PoolSettings(concurrency, concurrency, 60000), meterRegistry);
+
+        DockerAPIService dockerAPIService = mock(DockerAPIService.class, withSettings().stubOnly());
+        when(dockerAPIService.getHosts()).thenReturn(Collections.singleton(Fixtures.HOST));
+        when(dockerAPIService.getEndpoint(Fixtures.HOST)).thenReturn(endpoint);
+        when(dockerAPIService.getClient(Fixtures.HOST)).thenReturn(endpoint.getClient());
+        when(dockerAPIService.getLongRunningClient(Fixtures.HOST)).thenReturn(endpoint.getLongRunningClient());
+
+        fleet = Fixtures.workers("", workers);
+        bulkRequest = new BulkRequest();
+        bulkRequest.setIds(fleet.stream().map(Worker::getId).collect(Collectors.toList()));
+
+        WorkerRepository workerRepository = mock(WorkerRepository.class, withSettings().stubOnly());
+        when(workerRepository.findLiveById(anyString())).thenReturn(Optional.of(fleet.get(0)));
+
+        bulkOperationService = new BulkOperationService();
+        setField(bulkOperationService, "parallelism", concurrency);
+        setField(bulkOperationService, "stopTimeout", 10);
+        setField(bulkOperationService, "dockerAPIService", dockerAPIService);
+        setField(bulkOperationService, "workerSnapshotService", mock(WorkerSnapshotService.class));
+        setField(bulkOperationService, "workerRepository", workerRepository);
+        setField(bulkOperationService, "threadModeService", threadModeService);
+        bulkOperationService.init();
+
+        statsCollectorService = Fixtures.statsCollector(dockerAPIService, threadModeService, concurrency);
+
+        // workers that are not resolved never reach the stub, and would make the jobs look fast
+        try {
+            BulkJob job = await(bulkOperationService.submit(BulkOperationService.START, bulkRequest));
+            if (job.getResults().values().stream().anyMatch(result -> result.getStatus() != 200)) {
+                throw new IllegalStateException("Bulk start did not start every worker on the stub");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        bulkOperationService.shutdown();
+        statsCollectorService.shutdown();
+        endpoint.close();
+        stub.close();
+    }
+
+    @Benchmark
+    public BulkJob bulkStart(Threads counters) throws InterruptedException {
+        return await(bulkOperationService.submit(BulkOperationService.START, bulkRequest));
+    }
+
+    @Benchmark
+    public BulkJob bulkStop(Threads counters) throws InterruptedException {
+        return await(bulkOperationService.submit(BulkOperationService.STOP, bulkRequest));
+    }
+
+    @Benchmark
+    public StatsCollectorService.Report statsFanOut(Threads counters) throws InterruptedException {
+        return statsCollectorService.refresh(Fixtures.HOST, fleet);
+    }
+
+    private static BulkJob await(BulkJob job) throws InterruptedException {
+        while (!job.isDone()) {
+            Thread.sleep(1);
+        }
+        return job;
+    }
+
+    /**
+     * The platform threads of an iteration, counted when it ends, the summary adds up those of every iteration
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Threads {
+
+        // the threads the scheduler of virtual threads runs them on
+        private static final String CARRIER_THREAD = "jdk.internal.misc.CarrierThread";
+
+        private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+        // the most platform threads alive at once, carriers, the benchmark's own and the JVM's included
+        public long peakThreads;
+        // carriers are kept for a while once started, so these are about the most there were
+        public long carrierThreads;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            threadMXBean.resetPeakThreadCount();
+            peakThreads = 0;
+            carrierThreads = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void count() {
+            peakThreads = threadMXBean.getPeakThreadCount();
+            carrierThreads = Thread.getAllStackTraces().keySet().stream()
+                    .filter(thread -> CARRIER_THREAD.equals(thread.getClass().getName()))
+                    .count();
+        }
+    }
+}
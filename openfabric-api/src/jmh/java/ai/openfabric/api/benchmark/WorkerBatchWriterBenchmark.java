@@ -0,0 +1,172 @@
+package ai.openfabric.api.benchmark;
+
+import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.model.WorkerStatistics;
+import ai.openfabric.api.repository.WorkerBatchWriter;
+import ai.openfabric.api.repository.WorkerRepository;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.beans.BeanUtils;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.autoconfigure.liquibase.LiquibaseAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.autoconfigure.transaction.TransactionAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a whole refresh cycle to Postgres with {@link WorkerBatchWriter}, and with the JPA lookups and merges
+ * it replaced
+ * <p>
+ * Postgres runs in a container, or from embedded binaries where there is no Docker, and gets its schema from
+ * the Liquibase changelog of the application. The workers are inserted during the setup, so every measured
+ * write updates existing rows like the cycles do. Each write changes the statistics, as a new sample would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WorkerBatchWriterBenchmark {
+
+    static final String PREFIX = "jmh";
+
+    // the version the application runs against
+    static final String POSTGRES_IMAGE = "postgres:14.5";
+
+    @Param({"1000", "10000"})
+    private int workers;
+
+    private PostgreSQLContainer<?> container;
+    private EmbeddedPostgres embedded;
+    private ConfigurableApplicationContext context;
+
+    private List<Worker> batch;
+    private TransactionTemplate transactionTemplate;
+    private WorkerBatchWriter workerBatchWriter;
+    private WorkerRepository workerRepository;
+
+    @Setup
+    public void setup() throws IOException {
+        String url;
+        String username;
+        String password;
+        if (DockerClientFactory.instance().isDockerAvailable()) {
+            container = new PostgreSQLContainer<>(POSTGRES_IMAGE);
+            container.start();
+            url = container.getJdbcUrl();
+            username = container.getUsername();
+            password = container.getPassword();
+        } else {
+            embedded = EmbeddedPostgres.start();
+            url = embedded.getJdbcUrl("postgres", "postgres");
+            username = "postgres";
+            password = "";
+        }
+        // the datasource, JPA and Liquibase configuration of the application, nothing else
+        context = new SpringApplicationBuilder(Database.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .logStartupInfo(false)
+                .run("--spring.config.name=application-base",
+                        // logging every statement would be most of what the JPA writes measure
+                        "--logging.level.org.hibernate.SQL=info",
+                        "--spring.datasource.url=" + url,
+                        "--spring.datasource.username=" + username,
+                        "--spring.datasource.password=" + password);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+        workerBatchWriter = context.getBean(WorkerBatchWriter.class);
+        workerRepository = context.getBean(WorkerRepository.class);
+
+        batch = Fixtures.workers(PREFIX, workers);
+        // the statistics need their workers
+        write();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.close();
+        if (container != null) {
+            container.stop();
+        }
+        if (embedded != null) {
+            embedded.close();
+        }
+    }
+
+    @Benchmark
+    public void write() {
+        sample();
+        transactionTemplate.executeWithoutResult(status -> workerBatchWriter.write(batch, batch));
+    }
+
+    @Benchmark
+    public void writeStatistics() {
+        sample();
+        transactionTemplate.executeWithoutResult(status -> workerBatchWriter.writeStatistics(batch));
+    }
+
+    /**
+     * The cycle as updateDB() wrote it before {@link WorkerBatchWriter}, one findById per container and saveAll
+     */
+    @Benchmark
+    public void writeJpa() {
+        sample();
+        transactionTemplate.executeWithoutResult(status -> {
+            List<Worker> merged = new ArrayList<>(batch.size());
+            for (Worker listed : batch) {
+                Worker worker = workerRepository.findById(listed.getId()).orElse(new Worker());
+                BeanUtils.copyProperties(listed, worker, "workerStatistics");
+                WorkerStatistics statistics = worker.getWorkerStatistics();
+                if (statistics == null) {
+                    statistics = new WorkerStatistics();
+                    statistics.setWorker(worker);
+                    worker.setWorkerStatistics(statistics);
+                }
+                BeanUtils.copyProperties(listed.getWorkerStatistics(), statistics, "id", "worker");
+                merged.add(worker);
+            }
+            workerRepository.saveAll(merged);
+        });
+    }
+
+    // a new sample for every worker, so there is something to write
+    private void sample() {
+        for (Worker worker : batch) {
+            WorkerStatistics statistics = worker.getWorkerStatistics();
+            statistics.setNetworkIn(statistics.getNetworkIn() + 1);
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ImportAutoConfiguration({DataSourceAutoConfiguration.class, HibernateJpaAutoConfiguration.class,
+            JdbcTemplateAutoConfiguration.class, LiquibaseAutoConfiguration.class,
+            TransactionAutoConfiguration.class})
+    @EntityScan(basePackageClasses = Worker.class)
+    @EnableJpaRepositories(basePackageClasses = WorkerRepository.class)
+    @Import(WorkerBatchWriter.class)
+    static class Database {
+    }
+}
@@ -0,0 +1,83 @@
+package ai.openfabric.api.benchmark;
+
+import ai.openfabric.api.repository.WorkerCursor;
+import ai.openfabric.api.repository.WorkerFilter;
+import ai.openfabric.api.repository.WorkerListEntry;
+import ai.openfabric.api.service.WorkerSnapshotService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * A page of the worker list and its total, read from the snapshot with each kind of filter
+ * <p>
+ * Every tenth worker is exited and has no public port, the name prefix matches a handful of workers
+ * spread over the whole list, so a page of them scans most of it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WorkerListBenchmark {
+
+    @Param({"50000"})
+    private int workers;
+
+    @Param({"none", "state", "port", "label", "namePrefix"})
+    private String filterBy;
+
+    @Param({"id", "created"})
+    private String sortField;
+
+    private WorkerSnapshotService.Snapshot snapshot;
+    private WorkerFilter filter;
+    private WorkerCursor cursor;
+
+    @Setup
+    public void setup() {
+        WorkerSnapshotService workerSnapshotService = new WorkerSnapshotService();
+        setField(workerSnapshotService, "enabled", true);
+        workerSnapshotService.publish(Fixtures.HOST, Fixtures.workers("", workers));
+        snapshot = workerSnapshotService.get();
+
+        filter = new WorkerFilter();
+        switch (filterBy) {
+            case "state":
+                filter.setState("exited");
+                break;
+            case "port":
+                filter.setPort(18080);
+                break;
+            case "label":
+                filter.addLabel("ai.openfabric.pool=gpu");
+                break;
+            case "namePrefix":
+                filter.setNamePrefix("/worker-4999");
+                break;
+            default:
+                break;
+        }
+        cursor = WorkerCursor.first(sortField, true);
+        // the sort order is computed once per snapshot, not per page
+        snapshot.findAllMinimal(cursor, filter, 1);
+    }
+
+    @Benchmark
+    public List<WorkerListEntry> page() {
+        return snapshot.findAllMinimal(cursor, filter, 101);
+    }
+
+    @Benchmark
+    public long count() {
+        return snapshot.count(filter);
+    }
+}
@@ -0,0 +1,50 @@
+package ai.openfabric.api.benchmark;
+
+import ai.openfabric.api.model.Worker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting the published ports of a worker between the list the API shows and the column they are stored in
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WorkerPortsBenchmark {
+
+    @Param({"0", "2", "16"})
+    private int ports;
+
+    private List<Integer> list;
+    private final Worker worker = new Worker();
+
+    @Setup
+    public void setup() {
+        list = new ArrayList<>(ports);
+        for (int i = 0; i < ports; i++) {
+            list.add(18080 + i);
+        }
+        worker.setPorts(list);
+    }
+
+    @Benchmark
+    public List<Integer> getPorts() {
+        return worker.getPorts();
+    }
+
+    @Benchmark
+    public String setPorts() {
+        worker.setPorts(list);
+        return worker.getPortsColumn();
+    }
+}
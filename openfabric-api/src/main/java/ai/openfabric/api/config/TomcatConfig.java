@@ -0,0 +1,24 @@
+package ai.openfabric.api.config;
+
+import ai.openfabric.api.service.ThreadModeService;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Request handlers run on a virtual thread each in virtual thread mode, instead of Tomcat's worker pool
+ */
+@Configuration
+public class TomcatConfig {
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> threadModeCustomizer(
+            ThreadModeService threadModeService) {
+        return factory -> {
+            if (threadModeService.isVirtual()) {
+                factory.addProtocolHandlerCustomizers(
+                        protocolHandler -> protocolHandler.setExecutor(threadModeService.taskExecutor("http")));
+            }
+        };
+    }
+}
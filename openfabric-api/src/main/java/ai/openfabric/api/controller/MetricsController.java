@@ -0,0 +1,36 @@
+package ai.openfabric.api.controller;
+
+import ai.openfabric.api.service.ContainerMetricsExporter;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+@RestController
+public class MetricsController {
+
+    @Autowired
+    private ContainerMetricsExporter containerMetricsExporter;
+
+    @ApiOperation(value = "Scrape the statistics of every worker",
+            notes = "Prometheus text format, one series per worker labeled by id, name, image and host. " +
+                    "Metrics about this service itself are at /actuator/prometheus")
+    @ApiResponses(value = {
+            @ApiResponse(code = 503, message = "No snapshot of the workers yet")
+    })
+    @GetMapping(path = "/metrics")
+    public void metrics(HttpServletResponse response) throws IOException {
+        if (!containerMetricsExporter.isReady()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "No snapshot of the workers yet");
+        }
+        response.setContentType(ContainerMetricsExporter.CONTENT_TYPE);
+        containerMetricsExporter.write(response.getOutputStream());
+    }
+}
@@ -1,28 +1,47 @@
 package ai.openfabric.api.controller;
 
-import ai.openfabric.api.service.DockerAPIService;
+import ai.openfabric.api.model.BulkJob;
+import ai.openfabric.api.model.BulkRequest;
+import ai.openfabric.api.model.FleetAggregate;
+import ai.openfabric.api.model.TopWorker;
 import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.model.WorkerInfo;
 import ai.openfabric.api.model.WorkerStatistics;
+import ai.openfabric.api.model.WorkerPage;
+import ai.openfabric.api.model.WorkerStatisticsPoint;
+import ai.openfabric.api.repository.WorkerCursor;
+import ai.openfabric.api.repository.WorkerFilter;
+import ai.openfabric.api.repository.WorkerListEntry;
 import ai.openfabric.api.repository.WorkerRepository;
-import com.github.dockerjava.api.command.StartContainerCmd;
-import com.github.dockerjava.api.command.StopContainerCmd;
-import com.github.dockerjava.api.exception.InternalServerErrorException;
+import ai.openfabric.api.service.BulkOperationService;
+import ai.openfabric.api.service.FleetAggregateService;
+import ai.openfabric.api.service.InspectCacheService;
+import ai.openfabric.api.service.LogStreamService;
+import ai.openfabric.api.service.StatsHistoryService;
+import ai.openfabric.api.service.StatsStreamService;
+import ai.openfabric.api.service.WorkerSnapshotService;
 import com.github.dockerjava.api.exception.NotFoundException;
-import com.github.dockerjava.api.exception.NotModifiedException;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @RestController
 @RequestMapping("${node.api.path}/workers")
@@ -30,36 +49,177 @@ public class WorkerController {
     // Docker Engine API source: https://docs.docker.com/engine/api/v1.43
     // To enable Docker Engine API: https://gist.github.com/styblope/dc55e0ad2a9848f2cc3307d4819d819f
 
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    @Value("${node.bulk.wait:30000}")
+    private long bulkWait;  // milliseconds a bulk request waits for its job before answering 202
+
     @Autowired
     private WorkerRepository workerRepository;
 
     @Autowired
-    private DockerAPIService dockerAPIService;
+    private StatsHistoryService statsHistoryService;
+
+    @Autowired
+    private WorkerSnapshotService workerSnapshotService;
+
+    @Autowired
+    private StatsStreamService statsStreamService;
+
+    @Autowired
+    private BulkOperationService bulkOperationService;
+
+    @Autowired
+    private FleetAggregateService fleetAggregateService;
+
+    @Autowired
+    private LogStreamService logStreamService;
 
-    @ApiOperation(value = "List all the workers", notes = "Returns id, name, state and status of all the workers")
+    @Autowired
+    private InspectCacheService inspectCacheService;
+
+    @ApiOperation(value = "List all the workers",
+            notes = "Returns id, host, name, state and status of all the workers, or of the ones that match " +
+                    "every given filter. A label is \"key\" or \"key=value\" and can be repeated, created is " +
+                    "filtered from inclusive to exclusive. Pass the nextCursor of a page as cursor, with the same " +
+                    "filters, to get the next one, it keeps the sort order of the first page. The total is only " +
+                    "counted when count is true")
+    @ApiResponses(value = {
+            @ApiResponse(code = 400, message = "Invalid cursor, sort field or label")
+    })
     @GetMapping(path = "/")
-    public @ResponseBody Page<WorkerRepository.BasicWorkerInfo> getWorkers(
-            @RequestParam(required = false) Integer pageIndex,
+    public @ResponseBody WorkerPage getWorkers(
+            @RequestParam(required = false) String cursor,
             @RequestParam(required = false) Integer pageSize,
             @RequestParam(required = false) String sortField,
-            @RequestParam(required = false) Boolean sortAsc) {
+            @RequestParam(required = false) Boolean sortAsc,
+            @RequestParam(required = false) String host,
+            @RequestParam(required = false) String state,
+            @RequestParam(required = false) String image,
+            @RequestParam(required = false) String namePrefix,
+            @RequestParam(required = false) Integer port,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date createdFrom,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date createdTo,
+            @RequestParam(required = false) List<String> label,
+            @RequestParam(required = false) Boolean count) {
         // default values
-        if (pageIndex == null) {
-            pageIndex = 0;
-        }
         if (pageSize == null || pageSize <= 0) {
             pageSize = 10;
         }
+        pageSize = Math.min(pageSize, MAX_PAGE_SIZE);
         if (sortField == null) {
             sortField = "id";
         }
         if (sortAsc == null) {
             sortAsc = true;
         }
-        Pageable pageable = PageRequest.of(pageIndex, pageSize, Sort.by(sortAsc ? Sort.Direction.ASC : Sort.Direction.DESC, sortField));
+        WorkerCursor position;
+        try {
+            position = cursor == null ? WorkerCursor.first(sortField, sortAsc) : WorkerCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        WorkerFilter filter = new WorkerFilter();
+        filter.setHost(host);
+        filter.setState(state);
+        filter.setImage(image);
+        if (namePrefix != null) {
+            // Docker names start with a slash, which is left out when they are given
+            filter.setNamePrefix(namePrefix.startsWith("/") ? namePrefix : "/" + namePrefix);
+        }
+        filter.setPort(port);
+        filter.setCreatedFrom(createdFrom);
+        filter.setCreatedTo(createdTo);
+        if (label != null) {
+            try {
+                label.forEach(filter::addLabel);
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+            }
+        }
+
+        // one extra row tells whether there is a next page
+        List<WorkerListEntry> rows;
+        Long total = null;
+        if (workerSnapshotService.isReady()) {
+            WorkerSnapshotService.Snapshot snapshot = workerSnapshotService.get();
+            rows = snapshot.findAllMinimal(position, filter, pageSize + 1);
+            if (Boolean.TRUE.equals(count)) {
+                total = snapshot.count(filter);
+            }
+        } else {
+            rows = workerRepository.findAllMinimal(position, filter, pageSize + 1);
+            if (Boolean.TRUE.equals(count)) {
+                total = workerRepository.countMatching(filter);
+            }
+        }
+        String nextCursor = null;
+        if (rows.size() > pageSize) {
+            rows = rows.subList(0, pageSize);
+            nextCursor = position.after(rows.get(pageSize - 1)).encode();
+        }
+        return new WorkerPage(rows, nextCursor, total);
+    }
+
+    @ApiOperation(value = "Stream the statistics of workers",
+            notes = "Server-Sent Events, each 'stats' event maps worker ids to their latest statistics. " +
+                    "Samples are conflated, a subscriber gets at most node.stream.max-rate events a second")
+    @ApiResponses(value = {
+            @ApiResponse(code = 400, message = "No worker ids"),
+            @ApiResponse(code = 503, message = "Too many subscribers")
+    })
+    @GetMapping(path = "/stats/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamStats(@RequestParam List<String> ids) {
+        if (ids.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "No worker ids");
+        }
+        try {
+            return statsStreamService.subscribe(ids);
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+    }
+
+    @ApiOperation(value = "Aggregate the statistics of all the workers",
+            notes = "Total and average cpuUsage and memoryUsage of the latest samples, per image or per state. " +
+                    "Workers that are not running count as using nothing")
+    @ApiResponses(value = {
+            @ApiResponse(code = 400, message = "Invalid group")
+    })
+    @GetMapping(path = "/stats/aggregates")
+    public @ResponseBody List<FleetAggregate> aggregateStats(@RequestParam(required = false) String groupBy) {
+        if (groupBy == null) {
+            groupBy = FleetAggregateService.GROUP_IMAGE;
+        }
+        try {
+            return fleetAggregateService.aggregate(groupBy);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
 
-        // return minimal info
-        return workerRepository.findAllMinimal(pageable);
+    @ApiOperation(value = "List the workers that use the most",
+            notes = "Ranks the workers by the cpu, memory, network or block io of their latest sample, " +
+                    "network and block io in bytes per second in and out")
+    @ApiResponses(value = {
+            @ApiResponse(code = 400, message = "Invalid metric")
+    })
+    @GetMapping(path = "/stats/top")
+    public @ResponseBody List<TopWorker> topWorkers(
+            @RequestParam(required = false) String metric,
+            @RequestParam(required = false) Integer limit) {
+        // default values
+        if (metric == null) {
+            metric = FleetAggregateService.METRIC_CPU;
+        }
+        if (limit == null || limit <= 0) {
+            limit = 10;
+        }
+        try {
+            return fleetAggregateService.top(metric, Math.min(limit, MAX_PAGE_SIZE));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
     }
 
     @ApiOperation("Stop a worker")
@@ -70,21 +230,8 @@ public class WorkerController {
     })
     @PostMapping(path = "/{id}/stop")
     public @ResponseBody ResponseEntity<String> stopWorker(@PathVariable String id) {
-        try (StopContainerCmd cmd = dockerAPIService.getClient().stopContainerCmd(id)) {
-            try {
-                cmd.exec();
-            }
-            catch (NotFoundException e) {
-                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Worker not found");
-            }
-            catch (NotModifiedException e){
-                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).body("Worker already stopped");
-            }
-            catch (InternalServerErrorException e){
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
-            }
-        }
-        return ResponseEntity.status(HttpStatus.OK).body("Worker stopped");
+        BulkJob.Result result = bulkOperationService.run(BulkOperationService.STOP, id);
+        return ResponseEntity.status(result.getStatus()).body(result.getMessage());
     }
 
     @ApiOperation("Start a worker")
@@ -95,37 +242,103 @@ public class WorkerController {
     })
     @PostMapping(path = "/{id}/start")
     public @ResponseBody ResponseEntity<String> startWorker(@PathVariable String id) {
-        try (StartContainerCmd cmd = dockerAPIService.getClient().startContainerCmd(id)) {
-            try {
-                cmd.exec();
-            }
-            catch (NotFoundException e) {
-                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Worker not found");
-            }
-            catch (NotModifiedException e){
-                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).body("Worker already started");
-            }
-            catch (InternalServerErrorException e){
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
-            }
+        BulkJob.Result result = bulkOperationService.run(BulkOperationService.START, id);
+        return ResponseEntity.status(result.getStatus()).body(result.getMessage());
+    }
+
+    @ApiOperation(value = "Stop many workers",
+            notes = "Selects workers by ids and/or a name or label filter, optionally on one host, and stops them " +
+                    "concurrently. Waits up to node.bulk.wait for the results, a job that is still running can be polled")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Job finished, with a result per worker"),
+            @ApiResponse(code = 202, message = "Job still running"),
+            @ApiResponse(code = 400, message = "No workers selected or unknown host")
+    })
+    @PostMapping(path = "/bulk/stop")
+    public @ResponseBody ResponseEntity<BulkJob> stopWorkers(@RequestBody BulkRequest request) {
+        return submitBulk(BulkOperationService.STOP, request);
+    }
+
+    @ApiOperation(value = "Start many workers",
+            notes = "Selects workers by ids and/or a name or label filter, optionally on one host, and starts them " +
+                    "concurrently. Waits up to node.bulk.wait for the results, a job that is still running can be polled")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Job finished, with a result per worker"),
+            @ApiResponse(code = 202, message = "Job still running"),
+            @ApiResponse(code = 400, message = "No workers selected or unknown host")
+    })
+    @PostMapping(path = "/bulk/start")
+    public @ResponseBody ResponseEntity<BulkJob> startWorkers(@RequestBody BulkRequest request) {
+        return submitBulk(BulkOperationService.START, request);
+    }
+
+    @ApiOperation("Get a bulk start or stop job")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Job finished, with a result per worker"),
+            @ApiResponse(code = 202, message = "Job still running"),
+            @ApiResponse(code = 404, message = "Job not found")
+    })
+    @GetMapping(path = "/bulk/{jobId}")
+    public @ResponseBody ResponseEntity<BulkJob> bulkJob(@PathVariable String jobId) {
+        BulkJob job = bulkOperationService.getJob(jobId);
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Job not found");
         }
-        return ResponseEntity.status(HttpStatus.OK).body("Worker started");
+        return ResponseEntity.status(job.isDone() ? HttpStatus.OK : HttpStatus.ACCEPTED).body(job);
     }
 
-    @ApiOperation("Get more info about a worker")
+    @ApiOperation(value = "Get more info about a worker",
+            notes = "The worker with the details of its inspected container: env, mounts, restart count, " +
+                    "resource limits and health. Details are cached until the container changes, they are null " +
+                    "if the container cannot be inspected")
     @ApiResponses(value = {
             @ApiResponse(code = 404, message = "Worker not found")
     })
     @GetMapping(path = "/{id}/info")
-    public @ResponseBody Worker infoWorker(@PathVariable String id) {
-        Optional<Worker> w = workerRepository.findById(id);
+    public @ResponseBody WorkerInfo infoWorker(@PathVariable String id) {
+        Optional<Worker> w = findWorker(id);
         if (w.isPresent()) {
-            return w.get();
+            return new WorkerInfo(w.get(), inspectCacheService.get(w.get()));
         } else {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Worker not found");
         }
     }
 
+    @ApiOperation(value = "Stream the log of a worker",
+            notes = "Plain text, stdout and stderr interleaved, chunked as Docker sends it. Starts with the last " +
+                    "tail lines, or every line, since a unix time in seconds if given. With follow the stream " +
+                    "stays open for what the worker logs next, until node.logs.timeout, as Server-Sent Events: " +
+                    "an event per chunk with a data line per log line, and a comment every node.logs.heartbeat " +
+                    "while the worker is quiet")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Worker log"),
+            @ApiResponse(code = 404, message = "Worker not found"),
+            @ApiResponse(code = 429, message = "Too many log streams, or followers of the worker")
+    })
+    @GetMapping(path = "/{id}/logs", produces = {MediaType.TEXT_PLAIN_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public void logsWorker(
+            @PathVariable String id,
+            @RequestParam(required = false) Boolean follow,
+            @RequestParam(required = false) Integer tail,
+            @RequestParam(required = false) Integer since,
+            HttpServletResponse response) throws IOException {
+        Worker worker = findWorker(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Worker not found"));
+        LogStreamService.LogStream stream;
+        try {
+            stream = logStreamService.open(worker.getHost(), id, Boolean.TRUE.equals(follow), tail, since);
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, e.getMessage());
+        }
+        // written on the request thread, an async request would time out while following
+        try (LogStreamService.LogStream open = stream) {
+            response.setContentType(open.getContentType());
+            open.copyTo(response.getOutputStream());
+        } catch (NotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Worker not found");
+        }
+    }
+
     @ApiOperation("Get current statistics of a worker")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Worker statistics"),
@@ -133,11 +346,69 @@ public class WorkerController {
     })
     @GetMapping(path = "/{id}/stats")
     public @ResponseBody WorkerStatistics statWorker(@PathVariable String id) {
-        Optional<Worker> w = workerRepository.findById(id);
+        Optional<Worker> w = findWorker(id);
         if (w.isPresent()) {
             return w.get().getWorkerStatistics();
         } else {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Worker not found");
         }
     }
+
+    @ApiOperation(value = "Get the statistics history of a worker",
+            notes = "One point per step (seconds), steps of a minute or more are read from rollups. " +
+                    "Defaults to the last hour with 1 minute steps")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Worker statistics history"),
+            @ApiResponse(code = 400, message = "Invalid range or step"),
+            @ApiResponse(code = 404, message = "Worker not found")
+    })
+    @GetMapping(path = "/{id}/stats/history")
+    public @ResponseBody List<WorkerStatisticsPoint> statWorkerHistory(
+            @PathVariable String id,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date to,
+            @RequestParam(required = false) Long step) {
+        // default values
+        if (to == null) {
+            to = new Date();
+        }
+        if (from == null) {
+            from = new Date(to.getTime() - 3600 * 1000);
+        }
+        if (step == null) {
+            step = 60L;
+        }
+        if (!findWorker(id).isPresent()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Worker not found");
+        }
+        try {
+            return statsHistoryService.history(id, from, to, step);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    private ResponseEntity<BulkJob> submitBulk(String action, BulkRequest request) {
+        BulkJob job;
+        try {
+            job = bulkOperationService.submit(action, request);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        try {
+            job.getCompletion().get(bulkWait, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // still running, the caller polls the job
+        } catch (InterruptedException | ExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+        return ResponseEntity.status(job.isDone() ? HttpStatus.OK : HttpStatus.ACCEPTED).body(job);
+    }
+
+    private Optional<Worker> findWorker(String id) {
+        if (workerSnapshotService.isReady()) {
+            return Optional.ofNullable(workerSnapshotService.get().getWorker(id));
+        }
+        return workerRepository.findLiveById(id);
+    }
 }
@@ -0,0 +1,53 @@
+package ai.openfabric.api.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bulk start or stop operation and the result for each worker
+ */
+@Getter
+public class BulkJob {
+
+    private final String id;
+    private final String action;
+    private final Date submitted;
+    private volatile Date finished;
+    private final int total;
+    private final Map<String, Result> results = new ConcurrentHashMap<>();
+
+    @JsonIgnore
+    private final CompletableFuture<BulkJob> completion = new CompletableFuture<>();
+
+    public BulkJob(String id, String action, int total) {
+        this.id = id;
+        this.action = action;
+        this.total = total;
+        this.submitted = new Date();
+    }
+
+    public boolean isDone() {
+        return finished != null;
+    }
+
+    public void finish() {
+        finished = new Date();
+        completion.complete(this);
+    }
+
+    /**
+     * The outcome for one worker, with the status the single worker endpoint would have answered
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Result {
+        private final int status;
+        private final String message;
+    }
+}
@@ -0,0 +1,27 @@
+package ai.openfabric.api.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * The workers a bulk operation applies to, either explicit ids or a Docker name and/or label filter
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class BulkRequest {
+
+    private List<String> ids;
+
+    // matched by Docker against the container names
+    private String name;
+
+    // "key" or "key=value"
+    private String label;
+
+    // restricts the name and label filters to one Docker host, every host is searched without it
+    private String host;
+}
@@ -0,0 +1,25 @@
+package ai.openfabric.api.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * The latest statistics of a group of workers, summed and averaged
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class FleetAggregate {
+
+    // the image or state the workers share
+    private String key;
+    private long workers;
+
+    private double cpuUsage;
+    private long memoryUsage;
+    private double averageCpuUsage;
+    private long averageMemoryUsage;
+}
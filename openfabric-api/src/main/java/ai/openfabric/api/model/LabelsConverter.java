@@ -0,0 +1,66 @@
+package ai.openfabric.api.model;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores the labels of a worker as a jsonb object
+ */
+@Converter
+public class LabelsConverter implements AttributeConverter<Map<String, String>, String> {
+
+    // sorted by key, so equal labels are always stored the same
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+    private static final TypeReference<HashMap<String, String>> TYPE = new TypeReference<HashMap<String, String>>() {
+    };
+
+    @Override
+    public String convertToDatabaseColumn(Map<String, String> labels) {
+        return toJson(labels);
+    }
+
+    @Override
+    public Map<String, String> convertToEntityAttribute(String json) {
+        return fromJson(json);
+    }
+
+    /**
+     * @param labels the labels, or null
+     * @return the labels as a json object
+     */
+    public static String toJson(Map<String, String> labels) {
+        if (labels == null || labels.isEmpty()) {
+            return "{}";
+        }
+        try {
+            return MAPPER.writeValueAsString(labels);
+        } catch (JsonProcessingException e) {
+            // a map of strings always serializes
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param json a json object of labels, or null
+     * @return the labels, unmodifiable
+     */
+    public static Map<String, String> fromJson(String json) {
+        if (json == null || json.isEmpty() || "{}".equals(json)) {
+            return Collections.emptyMap();
+        }
+        try {
+            return Collections.unmodifiableMap(MAPPER.readValue(json, TYPE));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid labels: " + json, e);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package ai.openfabric.api.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A worker ranked by one metric of its latest statistics
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class TopWorker {
+
+    private String id;
+    private String host;
+    private String name;
+    private String image;
+    private String state;
+
+    // cpuUsage, memoryUsage, or bytes per second in and out for network and block io
+    private double value;
+}
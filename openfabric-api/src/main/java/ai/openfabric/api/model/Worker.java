@@ -6,6 +6,7 @@ import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.ColumnTransformer;
 
 import javax.persistence.*;
 import java.io.Serializable;
@@ -23,6 +24,8 @@ public class Worker extends Datable implements Serializable {
     @Column(columnDefinition = "character varying(255)")
     private String id;
 
+    // the Docker host the container runs on, see DockerAPIService
+    private String host;
     private String name;
     private String ports;
     private String status;
@@ -32,6 +35,10 @@ public class Worker extends Datable implements Serializable {
     private String command;
     private Date created;
 
+    // the container labels, a jsonb column
+    @Convert(converter = LabelsConverter.class)
+    @ColumnTransformer(write = "?::jsonb")
+    private Map<String, String> labels = Collections.emptyMap();
 
     @OneToOne(mappedBy = "worker", fetch = FetchType.LAZY, cascade = CascadeType.ALL)
     @PrimaryKeyJoinColumn
@@ -47,6 +54,19 @@ public class Worker extends Datable implements Serializable {
         return Arrays.stream(ports.split(",")).map(Integer::parseInt).collect(Collectors.toList());
     }
 
+    /**
+     * @return the ports as they are stored, a comma separated list
+     */
+    @JsonIgnore
+    public String getPortsColumn() {
+        return ports;
+    }
+
+    public void setLabels(Map<String, String> labels) {
+        this.labels = labels == null || labels.isEmpty()
+                ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(labels));
+    }
+
     public void setPorts(List<Integer> ports) {
         // to comma separated list of ports
         this.ports = ports.stream().filter(Objects::nonNull).map(Object::toString).collect(Collectors.joining(","));
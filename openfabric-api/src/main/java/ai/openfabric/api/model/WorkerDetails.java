@@ -0,0 +1,38 @@
+package ai.openfabric.api.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * What Docker reports about a worker only when its container is inspected
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class WorkerDetails {
+
+    // as Docker reports them, RFC 3339
+    private String startedAt;
+    private String finishedAt;
+    private Integer restartCount;
+    private Boolean oomKilled;
+
+    // starting, healthy or unhealthy, null without a health check
+    private String health;
+
+    // names of the environment variables, their values often hold secrets
+    private List<String> envNames;
+
+    // source:destination, with :ro for read-only mounts
+    private List<String> mounts;
+
+    // resource limits, null or 0 when unlimited
+    private Long memoryLimit;
+    private Long nanoCpus;
+    private Integer cpuShares;
+    private Long pidsLimit;
+    private String restartPolicy;
+}
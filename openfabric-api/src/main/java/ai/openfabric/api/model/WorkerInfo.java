@@ -0,0 +1,23 @@
+package ai.openfabric.api.model;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A worker with the details of its inspected container, the worker's own fields stay at the top level
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class WorkerInfo {
+
+    @JsonUnwrapped
+    private Worker worker;
+
+    // null if the container could not be inspected
+    private WorkerDetails details;
+}
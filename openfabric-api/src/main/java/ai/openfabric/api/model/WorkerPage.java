@@ -0,0 +1,23 @@
+package ai.openfabric.api.model;
+
+import ai.openfabric.api.repository.WorkerListEntry;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * A page of the worker list
+ */
+@Getter
+@AllArgsConstructor
+public class WorkerPage {
+
+    private List<WorkerListEntry> content;
+
+    // pass as cursor to get the next page, null on the last page
+    private String nextCursor;
+
+    // only counted when requested
+    private Long totalElements;
+}
@@ -21,12 +21,24 @@ public class WorkerStatistics extends Datable {
 
     private float cpuUsage;
     private float memoryUsage;
-    private float networkIn;
-    private float networkOut;
-    private float blockIn;
-    private float blockOut;
+
+    // bytes since the container started
+    private long networkIn;
+    private long networkOut;
+    private long blockIn;
+    private long blockOut;
+
+    // bytes per second since the previous sample, 0 for the first sample of a container
+    private float networkInRate;
+    private float networkOutRate;
+    private float blockInRate;
+    private float blockOutRate;
+
     private long pidCount;
 
+    // the last refresh could not collect a new sample, the values are from an earlier one
+    private boolean stale;
+
     @OneToOne(fetch = FetchType.LAZY)
     @MapsId
     @JoinColumn(name = "worker_id")
@@ -0,0 +1,28 @@
+package ai.openfabric.api.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.Date;
+
+/**
+ * One point of a worker's statistics history, averaged over a step
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class WorkerStatisticsPoint {
+
+    private Date time;
+
+    private float cpuUsage;
+    private long memoryUsage;
+    private long networkIn;
+    private long networkOut;
+    private long blockIn;
+    private long blockOut;
+    private long pidCount;
+}
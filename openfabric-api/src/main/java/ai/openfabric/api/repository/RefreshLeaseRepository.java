@@ -0,0 +1,42 @@
+package ai.openfabric.api.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Named leases held by one replica at a time, expiry is always computed by the database clock
+ */
+@Repository
+public class RefreshLeaseRepository {
+
+    // takes the lease if it is free, expired or already ours, in which case it is renewed
+    private static final String ACQUIRE = "INSERT INTO refresh_lease (name, owner, expires_at)" +
+            " VALUES (?, ?, now() + ? * interval '1 millisecond')" +
+            " ON CONFLICT (name) DO UPDATE SET owner = excluded.owner, expires_at = excluded.expires_at" +
+            " WHERE refresh_lease.owner = excluded.owner OR refresh_lease.expires_at < now()";
+
+    private static final String RELEASE = "DELETE FROM refresh_lease WHERE owner = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Acquire or renew a lease
+     * @param name the lease
+     * @param owner the replica asking for it
+     * @param duration milliseconds the lease is valid for without another renewal
+     * @return true if the owner holds the lease now
+     */
+    public boolean tryAcquire(String name, String owner, long duration) {
+        return jdbcTemplate.update(ACQUIRE, name, owner, duration) > 0;
+    }
+
+    /**
+     * Release every lease of a replica so the others can take over right away
+     * @param owner the replica
+     */
+    public void releaseAll(String owner) {
+        jdbcTemplate.update(RELEASE, owner);
+    }
+}
@@ -0,0 +1,204 @@
+package ai.openfabric.api.repository;
+
+import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.model.WorkerStatistics;
+import ai.openfabric.api.model.WorkerStatisticsPoint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Append-only statistics history with 1 minute and 1 hour rollups
+ * <p>
+ * Raw samples go to {@code worker_statistics_history}, partitioned by day so retention drops whole partitions.
+ * Rollups go to {@code worker_statistics_rollup}, keyed by worker, resolution in seconds and bucket start.
+ */
+@Repository
+public class StatsHistoryRepository {
+
+    public static final int MINUTE = 60;
+    public static final int HOUR = 3600;
+
+    private static final String TABLE = "worker_statistics_history";
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private static final String APPEND = "INSERT INTO " + TABLE +
+            " (worker_id, sampled_at, cpu_usage, memory_usage, network_in, network_out, block_in, block_out, pid_count)" +
+            " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // averages gauges and keeps the highest reading of counters, weighted by the samples behind each row;
+    // the columns have no time zone, so buckets are computed on their epoch and turned back AT TIME ZONE 'UTC'
+    private static final String ROLLUP_RAW = "INSERT INTO worker_statistics_rollup" +
+            " (worker_id, resolution, bucket, cpu_usage, memory_usage, network_in, network_out, block_in, block_out," +
+            " pid_count, samples)" +
+            " SELECT worker_id, ?, to_timestamp(floor(extract(epoch FROM sampled_at) / ?) * ?) AT TIME ZONE 'UTC'," +
+            " avg(cpu_usage), avg(memory_usage), max(network_in), max(network_out), max(block_in), max(block_out)," +
+            " max(pid_count), count(*)" +
+            " FROM " + TABLE + " WHERE sampled_at >= ? AND sampled_at < ? GROUP BY 1, 3" +
+            " ON CONFLICT (worker_id, resolution, bucket) DO UPDATE SET cpu_usage = excluded.cpu_usage," +
+            " memory_usage = excluded.memory_usage, network_in = excluded.network_in," +
+            " network_out = excluded.network_out, block_in = excluded.block_in, block_out = excluded.block_out," +
+            " pid_count = excluded.pid_count, samples = excluded.samples";
+
+    private static final String ROLLUP_ROLLUP = "INSERT INTO worker_statistics_rollup" +
+            " (worker_id, resolution, bucket, cpu_usage, memory_usage, network_in, network_out, block_in, block_out," +
+            " pid_count, samples)" +
+            " SELECT worker_id, ?, to_timestamp(floor(extract(epoch FROM bucket) / ?) * ?) AT TIME ZONE 'UTC'," +
+            " sum(cpu_usage * samples) / sum(samples), sum(memory_usage * samples) / sum(samples)," +
+            " max(network_in), max(network_out), max(block_in), max(block_out), max(pid_count), sum(samples)" +
+            " FROM worker_statistics_rollup WHERE resolution = ? AND bucket >= ? AND bucket < ? GROUP BY 1, 3" +
+            " ON CONFLICT (worker_id, resolution, bucket) DO UPDATE SET cpu_usage = excluded.cpu_usage," +
+            " memory_usage = excluded.memory_usage, network_in = excluded.network_in," +
+            " network_out = excluded.network_out, block_in = excluded.block_in, block_out = excluded.block_out," +
+            " pid_count = excluded.pid_count, samples = excluded.samples";
+
+    private static final String QUERY_RAW = "SELECT" +
+            " to_timestamp(floor(extract(epoch FROM sampled_at) / ?) * ?) AT TIME ZONE 'UTC' AS time," +
+            " avg(cpu_usage) AS cpu_usage, avg(memory_usage) AS memory_usage, max(network_in) AS network_in," +
+            " max(network_out) AS network_out, max(block_in) AS block_in, max(block_out) AS block_out," +
+            " max(pid_count) AS pid_count" +
+            " FROM " + TABLE + " WHERE worker_id = ? AND sampled_at >= ? AND sampled_at < ? GROUP BY 1 ORDER BY 1";
+
+    private static final String QUERY_ROLLUP = "SELECT" +
+            " to_timestamp(floor(extract(epoch FROM bucket) / ?) * ?) AT TIME ZONE 'UTC' AS time," +
+            " sum(cpu_usage * samples) / sum(samples) AS cpu_usage," +
+            " sum(memory_usage * samples) / sum(samples) AS memory_usage, max(network_in) AS network_in," +
+            " max(network_out) AS network_out, max(block_in) AS block_in, max(block_out) AS block_out," +
+            " max(pid_count) AS pid_count" +
+            " FROM worker_statistics_rollup WHERE worker_id = ? AND resolution = ? AND bucket >= ? AND bucket < ?" +
+            " GROUP BY 1 ORDER BY 1";
+
+    private static final RowMapper<WorkerStatisticsPoint> POINT_MAPPER = (rs, rowNum) -> new WorkerStatisticsPoint(
+            new Date(rs.getTimestamp("time").getTime()),
+            rs.getFloat("cpu_usage"),
+            rs.getLong("memory_usage"),
+            rs.getLong("network_in"),
+            rs.getLong("network_out"),
+            rs.getLong("block_in"),
+            rs.getLong("block_out"),
+            rs.getLong("pid_count"));
+
+    @Value("${node.db.batch-size:500}")
+    private int batchSize;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Append the statistics of the workers as raw samples
+     * @param workers the workers whose statistics to append, stale ones are left out
+     * @param sampledAt the time of the samples
+     */
+    public void append(Collection<Worker> workers, Date sampledAt) {
+        Timestamp time = new Timestamp(sampledAt.getTime());
+        jdbcTemplate.batchUpdate(APPEND, workers, batchSize, (ps, worker) -> {
+            WorkerStatistics statistics = worker.getWorkerStatistics();
+            ps.setString(1, worker.getId());
+            ps.setTimestamp(2, time);
+            ps.setFloat(3, statistics.getCpuUsage());
+            ps.setLong(4, (long) statistics.getMemoryUsage());
+            ps.setLong(5, statistics.getNetworkIn());
+            ps.setLong(6, statistics.getNetworkOut());
+            ps.setLong(7, statistics.getBlockIn());
+            ps.setLong(8, statistics.getBlockOut());
+            ps.setLong(9, statistics.getPidCount());
+        });
+    }
+
+    /**
+     * (Re)compute the rollup buckets of a time range, buckets that already exist are replaced
+     * @param resolution the rollup resolution in seconds, {@link #MINUTE} from raw samples or {@link #HOUR} from minutes
+     * @param from the start of the range, aligned to the resolution
+     * @param to the end of the range, exclusive
+     */
+    @Transactional
+    public void rollup(int resolution, Date from, Date to) {
+        Timestamp start = new Timestamp(from.getTime());
+        Timestamp end = new Timestamp(to.getTime());
+        if (resolution == MINUTE) {
+            jdbcTemplate.update(ROLLUP_RAW, resolution, resolution, resolution, start, end);
+        } else {
+            jdbcTemplate.update(ROLLUP_ROLLUP, resolution, resolution, resolution, MINUTE, start, end);
+        }
+    }
+
+    /**
+     * Create the raw partition of a day if it does not exist yet
+     * @param day the day
+     */
+    public void createPartition(LocalDate day) {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + partitionName(day) + " PARTITION OF " + TABLE +
+                " FOR VALUES FROM ('" + day + "') TO ('" + day.plusDays(1) + "')");
+    }
+
+    /**
+     * Drop the raw partitions of the days before the given one
+     * @param before the first day to keep
+     * @return how many partitions were dropped
+     */
+    public int dropPartitionsBefore(LocalDate before) {
+        List<String> partitions = jdbcTemplate.queryForList(
+                "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid" +
+                        " JOIN pg_class p ON p.oid = i.inhparent WHERE p.relname = ?", String.class, TABLE);
+        String oldest = partitionName(before);
+        int dropped = 0;
+        for (String partition : partitions) {
+            // dated partitions sort by name, the default partition is pruned by deleteRawBefore
+            if (partition.matches(TABLE + "_\\d{8}") && partition.compareTo(oldest) < 0) {
+                jdbcTemplate.execute("DROP TABLE IF EXISTS " + partition);
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Delete raw samples older than a time that are not in a dated partition
+     * @param before the oldest time to keep
+     */
+    public void deleteRawBefore(Date before) {
+        jdbcTemplate.update("DELETE FROM " + TABLE + "_default WHERE sampled_at < ?", new Timestamp(before.getTime()));
+    }
+
+    /**
+     * Delete rollup buckets older than a time
+     * @param resolution the rollup resolution in seconds
+     * @param before the oldest bucket to keep
+     */
+    public void deleteRollupsBefore(int resolution, Date before) {
+        jdbcTemplate.update("DELETE FROM worker_statistics_rollup WHERE resolution = ? AND bucket < ?",
+                resolution, new Timestamp(before.getTime()));
+    }
+
+    /**
+     * Query the history of a worker, downsampled to one point per step
+     * @param id the worker id
+     * @param from the start of the range
+     * @param to the end of the range, exclusive
+     * @param step the step in seconds
+     * @param resolution where to read from, 0 for raw samples, otherwise the rollup resolution in seconds
+     * @return the points in time order, steps without samples are left out
+     */
+    public List<WorkerStatisticsPoint> query(String id, Date from, Date to, long step, int resolution) {
+        Timestamp start = new Timestamp(from.getTime());
+        Timestamp end = new Timestamp(to.getTime());
+        if (resolution == 0) {
+            return jdbcTemplate.query(QUERY_RAW, POINT_MAPPER, step, step, id, start, end);
+        }
+        return jdbcTemplate.query(QUERY_ROLLUP, POINT_MAPPER, step, step, id, resolution, start, end);
+    }
+
+    private static String partitionName(LocalDate day) {
+        return TABLE + "_" + day.format(PARTITION_SUFFIX);
+    }
+}
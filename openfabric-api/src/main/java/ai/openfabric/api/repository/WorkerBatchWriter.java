@@ -0,0 +1,167 @@
+package ai.openfabric.api.repository;
+
+import ai.openfabric.api.model.LabelsConverter;
+import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.model.WorkerStatistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Writes a whole refresh cycle with batched upserts instead of loading and merging every entity
+ * <p>
+ * Workers whose container is gone are tombstoned, an upsert brings a tombstoned worker back.
+ */
+@Repository
+public class WorkerBatchWriter {
+
+    private static final String UPSERT_WORKER = "INSERT INTO worker " +
+            "(id, host, name, ports, status, state, image, image_id, command, created, labels, created_at, updated_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?::jsonb, ?, ?) " +
+            "ON CONFLICT (id) DO UPDATE SET host = excluded.host, name = excluded.name, ports = excluded.ports, " +
+            "status = excluded.status, state = excluded.state, image = excluded.image, " +
+            "image_id = excluded.image_id, command = excluded.command, created = excluded.created, " +
+            "labels = excluded.labels, updated_at = excluded.updated_at, deleted_at = NULL";
+
+    private static final String UPSERT_STATISTICS = "INSERT INTO worker_statistics " +
+            "(worker_id, cpu_usage, memory_usage, network_in, network_out, block_in, block_out, " +
+            "network_in_rate, network_out_rate, block_in_rate, block_out_rate, pid_count, stale, " +
+            "created_at, updated_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, false, ?, ?) " +
+            "ON CONFLICT (worker_id) DO UPDATE SET cpu_usage = excluded.cpu_usage, " +
+            "memory_usage = excluded.memory_usage, network_in = excluded.network_in, " +
+            "network_out = excluded.network_out, block_in = excluded.block_in, block_out = excluded.block_out, " +
+            "network_in_rate = excluded.network_in_rate, network_out_rate = excluded.network_out_rate, " +
+            "block_in_rate = excluded.block_in_rate, block_out_rate = excluded.block_out_rate, " +
+            "pid_count = excluded.pid_count, stale = false, updated_at = excluded.updated_at";
+
+    // a stale sample has no values worth writing, keep the previous ones
+    private static final String MARK_STALE = "UPDATE worker_statistics SET stale = true, updated_at = ? " +
+            "WHERE worker_id = ?";
+
+    // workers of the host whose container was not listed, the ids of the ones that were are the array
+    private static final String TOMBSTONE_VANISHED = "UPDATE worker SET deleted_at = ?, updated_at = ? " +
+            "WHERE host = ? AND deleted_at IS NULL AND NOT (id = ANY (?)) RETURNING id";
+
+    private static final String TOMBSTONE = "UPDATE worker SET deleted_at = ?, updated_at = ? " +
+            "WHERE id = ? AND deleted_at IS NULL";
+
+    @Value("${node.db.batch-size:500}")
+    private int batchSize;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Upsert workers and statistics in one transaction
+     * @param workers the workers whose info to write
+     * @param statistics the workers whose statistics to write
+     */
+    @Transactional
+    public void write(Collection<Worker> workers, Collection<Worker> statistics) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        writeWorkers(workers, now);
+        writeStatistics(statistics, now);
+    }
+
+    /**
+     * Upsert only the statistics of the workers
+     * @param workers the workers whose statistics to write
+     */
+    @Transactional
+    public void writeStatistics(Collection<Worker> workers) {
+        writeStatistics(workers, new Timestamp(System.currentTimeMillis()));
+    }
+
+    /**
+     * Tombstone the workers of a host whose containers are gone
+     * @param host the host that was listed
+     * @param liveIds the ids of every container the host listed
+     * @return the ids of the workers that were tombstoned
+     */
+    @Transactional
+    public List<String> tombstoneVanished(String host, Collection<String> liveIds) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(TOMBSTONE_VANISHED);
+            ps.setTimestamp(1, now);
+            ps.setTimestamp(2, now);
+            ps.setString(3, host);
+            ps.setArray(4, connection.createArrayOf("varchar", liveIds.toArray()));
+            return ps;
+        }, (rs, rowNum) -> rs.getString(1));
+    }
+
+    /**
+     * Tombstone a single worker
+     * @param id the worker id
+     * @return false if there is no such live worker
+     */
+    @Transactional
+    public boolean tombstone(String id) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        return jdbcTemplate.update(TOMBSTONE, now, now, id) > 0;
+    }
+
+    private void writeWorkers(Collection<Worker> workers, Timestamp now) {
+        jdbcTemplate.batchUpdate(UPSERT_WORKER, workers, batchSize, (ps, worker) -> {
+            ps.setString(1, worker.getId());
+            ps.setString(2, worker.getHost());
+            ps.setString(3, worker.getName());
+            ps.setString(4, worker.getPortsColumn());
+            ps.setString(5, worker.getStatus());
+            ps.setString(6, worker.getState());
+            ps.setString(7, worker.getImage());
+            ps.setString(8, worker.getImageId());
+            ps.setString(9, worker.getCommand());
+            ps.setTimestamp(10, worker.getCreated() == null ? null : new Timestamp(worker.getCreated().getTime()));
+            ps.setString(11, LabelsConverter.toJson(worker.getLabels()));
+            ps.setTimestamp(12, now);
+            ps.setTimestamp(13, now);
+        });
+    }
+
+    private void writeStatistics(Collection<Worker> workers, Timestamp now) {
+        List<WorkerStatistics> fresh = new ArrayList<>();
+        List<String> stale = new ArrayList<>();
+        for (Worker worker : workers) {
+            WorkerStatistics workerStatistics = worker.getWorkerStatistics();
+            if (workerStatistics == null) {
+                continue;
+            }
+            if (workerStatistics.isStale()) {
+                stale.add(worker.getId());
+            } else {
+                fresh.add(workerStatistics);
+            }
+        }
+        jdbcTemplate.batchUpdate(UPSERT_STATISTICS, fresh, batchSize, (ps, statistics) -> {
+            ps.setString(1, statistics.getWorker().getId());
+            ps.setFloat(2, statistics.getCpuUsage());
+            ps.setLong(3, (long) statistics.getMemoryUsage());
+            ps.setLong(4, statistics.getNetworkIn());
+            ps.setLong(5, statistics.getNetworkOut());
+            ps.setLong(6, statistics.getBlockIn());
+            ps.setLong(7, statistics.getBlockOut());
+            ps.setFloat(8, statistics.getNetworkInRate());
+            ps.setFloat(9, statistics.getNetworkOutRate());
+            ps.setFloat(10, statistics.getBlockInRate());
+            ps.setFloat(11, statistics.getBlockOutRate());
+            ps.setLong(12, statistics.getPidCount());
+            ps.setTimestamp(13, now);
+            ps.setTimestamp(14, now);
+        });
+        jdbcTemplate.batchUpdate(MARK_STALE, stale, batchSize, (ps, id) -> {
+            ps.setTimestamp(1, now);
+            ps.setString(2, id);
+        });
+    }
+}
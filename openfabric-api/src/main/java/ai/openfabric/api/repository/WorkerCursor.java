@@ -0,0 +1,95 @@
+package ai.openfabric.api.repository;
+
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A position in the worker list, handed to clients as an opaque continuation token
+ * <p>
+ * The list is ordered by the sort field and then by id, nulls last when ascending and first when descending
+ * like Postgres does. A cursor points after the (sort value, id) of the last row a client has seen.
+ */
+@Getter
+public final class WorkerCursor {
+
+    // fields the worker list can be sorted by, each backed by an index on (field, id)
+    public static final List<String> SORT_FIELDS =
+            Collections.unmodifiableList(Arrays.asList("id", "name", "state", "image", "created"));
+
+    private static final String SEPARATOR = "\u0000";
+
+    private final String field;
+    private final boolean ascending;
+    // false for the first page, there is no last row yet
+    private final boolean started;
+    private final Object value;
+    private final String id;
+
+    private WorkerCursor(String field, boolean ascending, boolean started, Object value, String id) {
+        this.field = field;
+        this.ascending = ascending;
+        this.started = started;
+        this.value = value;
+        this.id = id;
+    }
+
+    /**
+     * @param field the field to sort by
+     * @param ascending the sort direction
+     * @return a cursor at the start of the list
+     * @throws IllegalArgumentException if the list cannot be sorted by the field
+     */
+    public static WorkerCursor first(String field, boolean ascending) {
+        if (!SORT_FIELDS.contains(field)) {
+            throw new IllegalArgumentException("Cannot sort workers by " + field + ", expected one of " + SORT_FIELDS);
+        }
+        return new WorkerCursor(field, ascending, false, null, null);
+    }
+
+    /**
+     * @param row the last row of a page
+     * @return a cursor pointing after the row, in the same order
+     */
+    public WorkerCursor after(WorkerListEntry row) {
+        return new WorkerCursor(field, ascending, true, row.getSortValue(), row.getId());
+    }
+
+    public String encode() {
+        String encodedValue = value == null ? "" : "v" + (value instanceof Date ? ((Date) value).getTime() : value);
+        String token = String.join(SEPARATOR, field, ascending ? "a" : "d", encodedValue, id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param token a token from {@link #encode()}
+     * @return the cursor
+     * @throws IllegalArgumentException if the token is not a valid cursor
+     */
+    public static WorkerCursor decode(String token) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(SEPARATOR, -1);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        if (parts.length != 4 || !SORT_FIELDS.contains(parts[0]) || parts[3].isEmpty()) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        Object value = null;
+        if (!parts[2].isEmpty()) {
+            String encodedValue = parts[2].substring(1);
+            try {
+                value = "created".equals(parts[0]) ? new Date(Long.parseLong(encodedValue)) : encodedValue;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+        return new WorkerCursor(parts[0], "a".equals(parts[1]), true, value, parts[3]);
+    }
+}
@@ -0,0 +1,98 @@
+package ai.openfabric.api.repository;
+
+import ai.openfabric.api.model.Worker;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Restricts the worker list, a null criterion matches every worker
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class WorkerFilter {
+
+    private String host;
+    private String state;
+    private String image;
+
+    // matched against the start of the name, Docker names start with a slash
+    private String namePrefix;
+
+    // one of the public ports
+    private Integer port;
+
+    // the created range, from inclusive and to exclusive
+    private Date createdFrom;
+    private Date createdTo;
+
+    // labels the worker must all have, a null value matches any value of the key
+    private Map<String, String> labels = new LinkedHashMap<>();
+
+    /**
+     * Add a label selector
+     * @param selector "key" or "key=value", like the label filter of a bulk request
+     */
+    public void addLabel(String selector) {
+        int separator = selector.indexOf('=');
+        String key = separator < 0 ? selector : selector.substring(0, separator);
+        if (key.isEmpty()) {
+            throw new IllegalArgumentException("Invalid label selector: " + selector);
+        }
+        labels.put(key, separator < 0 ? null : selector.substring(separator + 1));
+    }
+
+    public boolean isEmpty() {
+        return host == null && state == null && image == null && namePrefix == null && port == null
+                && createdFrom == null && createdTo == null && labels.isEmpty();
+    }
+
+    /**
+     * @param worker the worker to test
+     * @return true if the worker meets every criterion
+     */
+    public boolean matches(Worker worker) {
+        return (host == null || host.equals(worker.getHost()))
+                && (state == null || state.equals(worker.getState()))
+                && (image == null || image.equals(worker.getImage()))
+                && (namePrefix == null || worker.getName() != null && worker.getName().startsWith(namePrefix))
+                && (port == null || listsPort(worker.getPortsColumn(), port))
+                && (createdFrom == null || worker.getCreated() != null && !worker.getCreated().before(createdFrom))
+                && (createdTo == null || worker.getCreated() != null && worker.getCreated().before(createdTo))
+                && hasLabels(worker.getLabels());
+    }
+
+    private boolean hasLabels(Map<String, String> workerLabels) {
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            String value = workerLabels.get(label.getKey());
+            if (value == null || (label.getValue() != null && !label.getValue().equals(value))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // whether a comma separated list of ports holds the port, without splitting it
+    private static boolean listsPort(String ports, int port) {
+        if (ports == null) {
+            return false;
+        }
+        int value = 0;
+        for (int i = 0; i <= ports.length(); i++) {
+            if (i == ports.length() || ports.charAt(i) == ',') {
+                if (value == port && i > 0) {
+                    return true;
+                }
+                value = 0;
+            } else {
+                value = value * 10 + ports.charAt(i) - '0';
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,22 @@
+package ai.openfabric.api.repository;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A row of the worker list, with the value of the field it is sorted by
+ */
+@Getter
+@AllArgsConstructor
+public class WorkerListEntry implements WorkerRepository.BasicWorkerInfo {
+
+    private final String id;
+    private final String host;
+    private final String name;
+    private final String state;
+    private final String status;
+
+    @JsonIgnore
+    private final Object sortValue;
+}
@@ -1,19 +1,43 @@
 package ai.openfabric.api.repository;
 
 import ai.openfabric.api.model.Worker;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 
-public interface WorkerRepository extends PagingAndSortingRepository<Worker, String> {
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
 
-    @Query(value = "SELECT w.id as id, w.name as name, w.state as state, w.status as status FROM Worker w", countQuery = "SELECT count(w.id) FROM Worker w", nativeQuery = true)
-    Page<BasicWorkerInfo> findAllMinimal(Pageable pageable);
+public interface WorkerRepository extends PagingAndSortingRepository<Worker, String>, WorkerRepositoryCustom {
+
+    // workers whose container vanished keep their row, with deletedAt set, until they are purged
+
+    @Query("SELECT w FROM Worker w LEFT JOIN FETCH w.workerStatistics WHERE w.deletedAt IS NULL")
+    List<Worker> findAllWithStatistics();
+
+    @Query("SELECT w FROM Worker w LEFT JOIN FETCH w.workerStatistics WHERE w.host = :host AND w.deletedAt IS NULL")
+    List<Worker> findAllWithStatisticsByHost(@Param("host") String host);
+
+    // written since a time, tombstoned workers included so whoever follows the host drops them
+    @Query("SELECT w FROM Worker w LEFT JOIN FETCH w.workerStatistics WHERE w.host = :host AND w.updatedAt > :since")
+    List<Worker> findWrittenByHostSince(@Param("host") String host, @Param("since") Date since);
+
+    @Query("SELECT w FROM Worker w JOIN FETCH w.workerStatistics s " +
+            "WHERE w.host = :host AND s.updatedAt > :since AND w.deletedAt IS NULL")
+    List<Worker> findStatisticsWrittenByHostSince(@Param("host") String host, @Param("since") Date since);
+
+    @Query("SELECT w.id FROM Worker w WHERE w.host = :host AND w.state = :state AND w.deletedAt IS NULL")
+    List<String> findIdsByHostAndState(@Param("host") String host, @Param("state") String state);
+
+    @Query("SELECT w FROM Worker w WHERE w.id = :id AND w.deletedAt IS NULL")
+    Optional<Worker> findLiveById(@Param("id") String id);
 
     interface BasicWorkerInfo {
         String getId();
 
+        String getHost();
+
         String getName();
 
         String getState();
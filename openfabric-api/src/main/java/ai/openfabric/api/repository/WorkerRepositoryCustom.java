@@ -0,0 +1,30 @@
+package ai.openfabric.api.repository;
+
+import java.util.Date;
+import java.util.List;
+
+public interface WorkerRepositoryCustom {
+
+    /**
+     * Get the rows of the worker list that follow a cursor, using the (field, id) indexes instead of an offset
+     * @param cursor the position to continue from
+     * @param filter the workers to list
+     * @param limit the most rows to return
+     * @return the rows in list order
+     */
+    List<WorkerListEntry> findAllMinimal(WorkerCursor cursor, WorkerFilter filter, int limit);
+
+    /**
+     * @param filter the workers to count
+     * @return the number of workers that match the filter
+     */
+    long countMatching(WorkerFilter filter);
+
+    /**
+     * Delete workers that were tombstoned before a time, with their statistics
+     * @param before when the oldest tombstone to keep was set
+     * @param limit the most workers to delete
+     * @return the number of workers deleted, less than the limit once there are no more
+     */
+    int purgeDeletedBefore(Date before, int limit);
+}
@@ -0,0 +1,145 @@
+package ai.openfabric.api.repository;
+
+import ai.openfabric.api.model.LabelsConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keyset queries for the worker list, the sort field is always one of {@link WorkerCursor#SORT_FIELDS}
+ */
+public class WorkerRepositoryImpl implements WorkerRepositoryCustom {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public List<WorkerListEntry> findAllMinimal(WorkerCursor cursor, WorkerFilter filter, int limit) {
+        String column = cursor.getField();
+        boolean inNulls = cursor.isStarted() && cursor.getValue() == null;
+        boolean pastNulls = cursor.isStarted() && cursor.getValue() != null;
+        Object value = cursor.getValue() instanceof Date ? new Timestamp(((Date) cursor.getValue()).getTime()) : cursor.getValue();
+
+        List<WorkerListEntry> rows = new ArrayList<>();
+        if (cursor.isAscending()) {
+            // rows with a value first, then the ones without
+            if (pastNulls) {
+                rows.addAll(query(column, column + " IS NOT NULL AND (" + column + ", id) > (?, ?)",
+                        column + ", id", limit, filter, value, cursor.getId()));
+            } else if (!inNulls) {
+                rows.addAll(query(column, column + " IS NOT NULL", column + ", id", limit, filter));
+            }
+            if (rows.size() < limit) {
+                rows.addAll(inNulls
+                        ? query(column, column + " IS NULL AND id > ?", "id", limit - rows.size(), filter, cursor.getId())
+                        : query(column, column + " IS NULL", "id", limit - rows.size(), filter));
+            }
+        } else {
+            // rows without a value first, then the ones with
+            if (inNulls) {
+                rows.addAll(query(column, column + " IS NULL AND id < ?", "id DESC", limit, filter, cursor.getId()));
+            } else if (!pastNulls) {
+                rows.addAll(query(column, column + " IS NULL", "id DESC", limit, filter));
+            }
+            if (rows.size() < limit) {
+                rows.addAll(pastNulls
+                        ? query(column, column + " IS NOT NULL AND (" + column + ", id) < (?, ?)",
+                        column + " DESC, id DESC", limit - rows.size(), filter, value, cursor.getId())
+                        : query(column, column + " IS NOT NULL", column + " DESC, id DESC", limit - rows.size(), filter));
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public long countMatching(WorkerFilter filter) {
+        List<Object> arguments = new ArrayList<>();
+        String sql = "SELECT count(*) FROM worker WHERE true" + conditionsOf(filter, arguments);
+        Long count = jdbcTemplate.queryForObject(sql, Long.class, arguments.toArray());
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public int purgeDeletedBefore(Date before, int limit) {
+        // statistics go with their worker, the foreign key cascades
+        return jdbcTemplate.update("DELETE FROM worker WHERE id IN " +
+                "(SELECT id FROM worker WHERE deleted_at < ? LIMIT ?)", new Timestamp(before.getTime()), limit);
+    }
+
+    private List<WorkerListEntry> query(String column, String condition, String order, int limit, WorkerFilter filter,
+                                        Object... parameters) {
+        List<Object> arguments = new ArrayList<>(Arrays.asList(parameters));
+        String sql = "SELECT id, host, name, state, status, " + column + " AS sort_value FROM worker" +
+                " WHERE " + condition + conditionsOf(filter, arguments) + " ORDER BY " + order + " LIMIT ?";
+        arguments.add(limit);
+        return jdbcTemplate.query(sql, (rs, rowNum) -> {
+            Object sortValue = rs.getObject("sort_value");
+            return new WorkerListEntry(rs.getString("id"), rs.getString("host"), rs.getString("name"),
+                    rs.getString("state"), rs.getString("status"),
+                    sortValue instanceof Date ? new Date(((Date) sortValue).getTime()) : sortValue);
+        }, arguments.toArray());
+    }
+
+    // the filter criteria as conditions to AND to a query, their values are added to the arguments;
+    // tombstoned workers are never listed, the (field, id) indexes only cover the live ones
+    private static String conditionsOf(WorkerFilter filter, List<Object> arguments) {
+        StringBuilder conditions = new StringBuilder(" AND deleted_at IS NULL");
+        if (filter.getHost() != null) {
+            conditions.append(" AND host = ?");
+            arguments.add(filter.getHost());
+        }
+        if (filter.getState() != null) {
+            conditions.append(" AND state = ?");
+            arguments.add(filter.getState());
+        }
+        if (filter.getImage() != null) {
+            conditions.append(" AND image = ?");
+            arguments.add(filter.getImage());
+        }
+        if (filter.getNamePrefix() != null) {
+            // a prefix pattern, served by the text_pattern_ops index
+            conditions.append(" AND name LIKE ?");
+            arguments.add(escapeLike(filter.getNamePrefix()) + "%");
+        }
+        if (filter.getPort() != null) {
+            // the same expression as the gin index on the ports
+            conditions.append(" AND string_to_array(ports, ',') @> ARRAY[?::text]");
+            arguments.add(filter.getPort().toString());
+        }
+        if (filter.getCreatedFrom() != null) {
+            conditions.append(" AND created >= ?");
+            arguments.add(new Timestamp(filter.getCreatedFrom().getTime()));
+        }
+        if (filter.getCreatedTo() != null) {
+            conditions.append(" AND created < ?");
+            arguments.add(new Timestamp(filter.getCreatedTo().getTime()));
+        }
+        Map<String, String> values = new TreeMap<>();
+        for (Map.Entry<String, String> label : filter.getLabels().entrySet()) {
+            if (label.getValue() == null) {
+                // the jsonb ? operator, escaped for the driver
+                conditions.append(" AND labels ?? ?");
+                arguments.add(label.getKey());
+            } else {
+                values.put(label.getKey(), label.getValue());
+            }
+        }
+        if (!values.isEmpty()) {
+            // every key=value selector in one containment test of the gin index
+            conditions.append(" AND labels @> ?::jsonb");
+            arguments.add(LabelsConverter.toJson(values));
+        }
+        return conditions.toString();
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
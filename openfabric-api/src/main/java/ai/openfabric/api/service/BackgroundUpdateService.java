@@ -1,131 +1,561 @@
 package ai.openfabric.api.service;
 
 import ai.openfabric.api.model.Worker;
-import ai.openfabric.api.model.WorkerStatistics;
+import ai.openfabric.api.repository.WorkerBatchWriter;
 import ai.openfabric.api.repository.WorkerRepository;
-import com.github.dockerjava.api.async.ResultCallback;
 import com.github.dockerjava.api.command.ListContainersCmd;
-import com.github.dockerjava.api.command.StatsCmd;
 import com.github.dockerjava.api.exception.InternalServerErrorException;
 import com.github.dockerjava.api.model.Container;
-import com.github.dockerjava.api.model.Statistics;
+import com.github.dockerjava.api.model.Event;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
-import java.io.Closeable;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.CountDownLatch;
+import java.util.Map;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * A component that runs in the background to update the database periodically
+ * <p>
+ * Every Docker host gets its own collector thread, so a slow or unreachable host only delays its own workers.
+ * A cycle is scheduled once the previous one finished, after the update interval, or longer while the host is
+ * slow or failing, up to the max interval. How often each container's statistics are polled is up to
+ * {@link StatsCollectorService}.
+ * With several replicas, only the holder of the host's lease refreshes it, see {@link RefreshLeaseService}.
+ * The others follow on each interval by reading what was written for the host since their last read into their
+ * snapshot, and reload the host whole at the reconcile interval.
+ * The lease is renewed at the end of every cycle until the next one is due, however long the host backs off, and
+ * again right before a cycle writes, so a cycle that outlived it writes nothing. This is no fencing token: a
+ * flush that itself takes longer than the lease duration can still overlap the next leader.
+ * <p>
+ * In {@code poll} mode every container is listed and written on each interval. In {@code events} mode
+ * lifecycle changes are applied from the Docker events stream as they happen, each interval only refreshes
+ * the statistics of running workers, and the full listing runs at the slower reconcile interval or after
+ * the events stream dropped.
+ * <p>
+ * Statistics are collected by {@link StatsCollectorService}, whatever it got in time is saved.
  */
 @Component
-public class BackgroundUpdateService {
+public class BackgroundUpdateService implements ContainerEventListener {
+
+    public static final String LEASE_PREFIX = "host:";
+
+    // what a refresh cycle did, as tagged on the worker.refresh timer
+    public static final String KIND_FULL = "full";
+    public static final String KIND_STATISTICS = "statistics";
+    public static final String KIND_FOLLOW = "follow";
 
     public static final int UPDATE_INTERVAL = 2000;  // 2 seconds
+    public static final int MAX_INTERVAL = 30000;  // 30 seconds
+    public static final int RECONCILE_INTERVAL = 60000;  // 1 minute
+    // how far before the latest write it has read a follower reads again
+    public static final int FOLLOW_OVERLAP = 5000;  // 5 seconds
+
+    public static final String MODE_POLL = "poll";
+    public static final String MODE_EVENTS = "events";
+
+    private static final Logger logger = LoggerFactory.getLogger(BackgroundUpdateService.class);
+
+    @Value("${node.update.mode:" + MODE_POLL + "}")
+    private String updateMode;
+
+    @Value("${node.update.interval:" + UPDATE_INTERVAL + "}")
+    private long updateInterval;
+
+    @Value("${node.update.max-interval:" + MAX_INTERVAL + "}")
+    private long maxInterval;
+
+    @Value("${node.update.reconcile-interval:" + RECONCILE_INTERVAL + "}")
+    private long reconcileInterval;
+
     @Autowired
     private WorkerRepository workerRepository;
 
+    @Autowired
+    private WorkerBatchWriter workerBatchWriter;
+
+    @Autowired
+    private WorkerChangeTracker workerChangeTracker;
+
+    @Autowired
+    private StatsHistoryService statsHistoryService;
+
+    @Autowired
+    private WorkerSnapshotService workerSnapshotService;
+
     @Autowired
     private DockerAPIService dockerAPIService;
 
-    private ScheduledExecutorService executorService;
+    @Autowired
+    private DockerEventService dockerEventService;
+
+    @Autowired
+    private StatsCollectorService statsCollectorService;
+
+    @Autowired
+    private FleetAggregateService fleetAggregateService;
+
+    @Autowired
+    private RefreshLeaseService refreshLeaseService;
+
+    @Autowired
+    private ThreadModeService threadModeService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, HostCollector> collectors = new LinkedHashMap<>();
 
     @PostConstruct
     public void init() {
-        // start a thread to update the database periodically
-        executorService = Executors.newSingleThreadScheduledExecutor();
-        executorService.scheduleAtFixedRate(this::updateDB, 0, UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
+        for (String host : dockerAPIService.getHosts()) {
+            collectors.put(host, new HostCollector(host));
+        }
+        if (isEventMode()) {
+            dockerEventService.addListener(this);
+        }
+        collectors.values().forEach(HostCollector::start);
     }
 
     @PreDestroy
     public void shutdown() {
-        executorService.shutdown();
+        collectors.values().forEach(HostCollector::shutdown);
+    }
+
+    private boolean isEventMode() {
+        return MODE_EVENTS.equalsIgnoreCase(updateMode);
+    }
+
+    @Override
+    public void onContainerEvent(String host, Event event) {
+        HostCollector collector = collectors.get(host);
+        if (collector != null) {
+            collector.onContainerEvent(event);
+        }
+    }
+
+    @Override
+    public void onStreamReset(String host) {
+        HostCollector collector = collectors.get(host);
+        if (collector != null) {
+            collector.reconcileNeeded = true;
+        }
     }
 
     /**
-     * Update the database with the latest information from Docker Engine API
+     * Apply a single container lifecycle event to the stored worker
+     * @param host the host the event came from
+     * @param event the event from the Docker events stream
      */
     @Transactional
-    public void updateDB() {
-        Logger logger = LoggerFactory.getLogger(BackgroundUpdateService.class);
-        try (ListContainersCmd listContainersCmd = dockerAPIService.getClient().listContainersCmd()) {
-            List<Container> containers = listContainersCmd.withShowAll(true).exec();
+    public void applyEvent(String host, Event event) {
+        String id = event.getId();
+        if (id == null) {
+            return;
+        }
+        if ("destroy".equals(event.getAction())) {
+            // kept until it is purged, see WorkerPurgeService
+            workerBatchWriter.tombstone(id);
+            workerChangeTracker.forget(id);
+            workerSnapshotService.publishRemoval(id);
+            fleetAggregateService.remove(id);
+            return;
+        }
+        try (ListContainersCmd listContainersCmd = dockerAPIService.getClient(host).listContainersCmd()) {
+            List<Container> containers = listTimer(host).record(() -> listContainersCmd.withShowAll(true)
+                    .withIdFilter(Collections.singleton(id)).exec());
+            if (containers.isEmpty()) {
+                // already gone, the destroy event will follow
+                return;
+            }
+            Worker worker = workerRepository.findById(id).orElse(new Worker());
+            DockerAPIService.extractInfo(containers.get(0), worker);
+            worker.setHost(host);
+            worker.deletedAt = null;
+            workerRepository.save(worker);
+            workerChangeTracker.recordInfo(Collections.singletonList(worker));
+            workerSnapshotService.publishWorker(worker);
+            fleetAggregateService.publishWorker(worker);
+        }
+    }
+
+    /**
+     * Update the database with the latest information of a host from Docker Engine API
+     * @param host the host to refresh
+     */
+    @Transactional
+    public void updateDB(String host) {
+        try (ListContainersCmd listContainersCmd = dockerAPIService.getClient(host).listContainersCmd()) {
+            List<Container> containers = listTimer(host).record(() -> listContainersCmd.withShowAll(true).exec());
 
             try {
-                // to track how many callbacks are left
-                CountDownLatch latch = new CountDownLatch(containers.size());
+                // every column is rewritten by the upsert, so there is no need to load the stored workers
                 ArrayList<Worker> workers = new ArrayList<>();
                 containers.forEach(container -> {
-                    Optional<Worker> optionalWorker = workerRepository.findById(container.getId());
-
-                    Worker worker = optionalWorker.orElse(new Worker());
+                    Worker worker = new Worker();
                     DockerAPIService.extractInfo(container, worker);
+                    worker.setHost(host);
+                    workers.add(worker);
+                });
+                refreshStats(host, workers);
+                List<Worker> changedInfo = workerChangeTracker.changedInfo(workers);
+                List<Worker> changedStatistics = workerChangeTracker.changedStatistics(workers);
+                checkLease(host);
+                flushTimer(host, KIND_FULL).record(() -> workerBatchWriter.write(changedInfo, changedStatistics));
+                workerChangeTracker.recordInfo(changedInfo);
+                workerChangeTracker.recordStatistics(changedStatistics);
+                tombstoneVanished(host, workers);
+                workerSnapshotService.publish(host, workers);
+                fleetAggregateService.publish(host, workers);
+                statsHistoryService.record(host, workers);
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Uncaught InterruptedException", e);
+            }
+        } catch (InternalServerErrorException e) {
+            // Docker API failed, the cycle fails as it is and backs off
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Uncaught exception", e);
+        }
+    }
+
+    // the cycle may have outlived the lease, renewing it leaves the whole lease duration for the writes
+    private void checkLease(String host) {
+        if (!refreshLeaseService.acquire(LEASE_PREFIX + host)) {
+            throw new IllegalStateException("Lost the lease of " + host + " during its refresh cycle");
+        }
+    }
+
+    // every stored worker of the host that was not listed is gone from Docker
+    private void tombstoneVanished(String host, List<Worker> workers) {
+        List<String> liveIds = workers.stream().map(Worker::getId).collect(Collectors.toList());
+        List<String> vanished = workerBatchWriter.tombstoneVanished(host, liveIds);
+        if (!vanished.isEmpty()) {
+            vanished.forEach(workerChangeTracker::forget);
+            logger.info("Tombstoned {} workers of {} whose containers are gone", vanished.size(), host);
+        }
+    }
+
+    /**
+     * Update the statistics of the running workers of a host only, their info is kept current by events
+     * @param host the host to refresh
+     */
+    @Transactional
+    public void updateStats(String host) {
+        try {
+            List<Worker> workers = workerRepository.findIdsByHostAndState(host, "running").stream().map(id -> {
+                Worker worker = new Worker();
+                worker.setId(id);
+                worker.setHost(host);
+                worker.setState("running");
+                return worker;
+            }).collect(Collectors.toList());
+            refreshStats(host, workers);
+            List<Worker> changedStatistics = workerChangeTracker.changedStatistics(workers);
+            checkLease(host);
+            flushTimer(host, KIND_STATISTICS).record(() -> workerBatchWriter.writeStatistics(changedStatistics));
+            workerChangeTracker.recordStatistics(changedStatistics);
+            workerSnapshotService.publishStatistics(workers);
+            statsHistoryService.record(host, workers);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Uncaught InterruptedException", e);
+        }
+    }
+
+    /**
+     * Reload the workers of a host that another replica refreshes, and pass on the statistics it wrote
+     * @param host the host to reload
+     * @param since only read the workers and statistics written after this time, null to reload every worker
+     * @return the latest write time of what was read, null if nothing was
+     */
+    public Date follow(String host, Date since) {
+        Collection<Worker> workers;
+        List<Worker> refreshed;
+        if (since == null) {
+            workers = workerRepository.findAllWithStatisticsByHost(host);
+            fleetAggregateService.publish(host, workers);
+            refreshed = workerSnapshotService.publishLoaded(host, workers);
+        } else {
+            Map<String, Worker> written = new LinkedHashMap<>();
+            workerRepository.findWrittenByHostSince(host, since).forEach(worker -> written.put(worker.getId(), worker));
+            workerRepository.findStatisticsWrittenByHostSince(host, since)
+                    .forEach(worker -> written.putIfAbsent(worker.getId(), worker));
+            workers = written.values();
+            for (Worker worker : workers) {
+                if (worker.deletedAt != null) {
+                    fleetAggregateService.remove(worker.getId());
+                } else {
+                    fleetAggregateService.publishWorker(worker);
+                }
+            }
+            refreshed = workerSnapshotService.publishLoadedChanges(workers);
+        }
+        for (Worker worker : refreshed) {
+            statsCollectorService.notifyListeners(worker.getId(), worker.getWorkerStatistics());
+        }
+        return lastWritten(workers);
+    }
 
-                    // get stats in callback
-                    try (StatsCmd statsCmd = dockerAPIService.getClient().statsCmd(worker.getId())) {
+    private static Date lastWritten(Collection<Worker> workers) {
+        Date last = null;
+        for (Worker worker : workers) {
+            last = later(last, worker.updatedAt);
+            if (worker.getWorkerStatistics() != null) {
+                last = later(last, worker.getWorkerStatistics().updatedAt);
+            }
+        }
+        return last;
+    }
 
-                        statsCmd.withNoStream(true).exec(new ResultCallback<Statistics>() {
-                            @Override
-                            public void onStart(Closeable closeable) {
+    private static Date later(Date date, Date other) {
+        return other != null && (date == null || other.getTime() > date.getTime()) ? other : date;
+    }
 
-                            }
+    /**
+     * Attach the current statistics to the workers and log how the collection went
+     * @param host the host the workers run on
+     * @param workers the workers to refresh statistics for
+     */
+    private void refreshStats(String host, List<Worker> workers) throws InterruptedException {
+        StatsCollectorService.Report report = statsCollectorService.refresh(host, workers);
+        if (report.getSkipped() > 0 || report.getFailed() > 0) {
+            logger.warn("Stats refresh of {} incomplete: {}", host, report);
+        } else {
+            logger.debug("Stats refresh of {}: {}", host, report);
+        }
+    }
 
-                            @Override
-                            public void onNext(Statistics object) {
+    /**
+     * Get how long ago each host was last refreshed successfully, or followed if another replica refreshes it
+     * @return host -> milliseconds since its last successful cycle, or since startup if it had none
+     */
+    public Map<String, Long> getLag() {
+        Map<String, Long> lag = new LinkedHashMap<>();
+        collectors.forEach((host, collector) -> lag.put(host, collector.lag()));
+        return lag;
+    }
 
-                                WorkerStatistics workerStatistics = Optional.ofNullable(worker.getWorkerStatistics()).orElse(new WorkerStatistics());
+    /**
+     * @param host the host
+     * @return true if this replica refreshes the host, false if it follows another one
+     */
+    public boolean isLeader(String host) {
+        HostCollector collector = collectors.get(host);
+        return collector != null && collector.leader;
+    }
 
-                                DockerAPIService.extractStats(object, workerStatistics);
+    private Timer listTimer(String host) {
+        return Timer.builder("docker.containers.list")
+                .tag("host", host)
+                .description("Listing the containers of a host")
+                .register(meterRegistry);
+    }
 
-                                workerStatistics.setWorker(worker);
-                                worker.setWorkerStatistics(workerStatistics);
-                            }
+    private Timer flushTimer(String host, String kind) {
+        return Timer.builder("worker.db.flush")
+                .tags("host", host, "kind", kind)
+                .description("Writing the changes of a refresh cycle to the database")
+                .register(meterRegistry);
+    }
 
-                            @Override
-                            public void onError(Throwable throwable) {
-                                latch.countDown();
-                                throw new RuntimeException("Uncaught error in callback", throwable);
-                            }
+    private Timer refreshTimer(String host, String kind, String result) {
+        return Timer.builder("worker.refresh")
+                .tags("host", host, "kind", kind, "result", result)
+                .description("Refresh cycles of a host")
+                .register(meterRegistry);
+    }
 
-                            @Override
-                            public void onComplete() {
-                                latch.countDown();
-                            }
+    /**
+     * The update thread of a single host and what it knows about its events stream
+     */
+    private class HostCollector {
 
-                            @Override
-                            public void close() throws IOException {
+        private final String host;
+        private final ScheduledExecutorService executorService;
 
-                            }
-                        });
-                    }
-                    workers.add(worker);
-                });
-                // wait till callbacks finish
-                boolean finished = latch.await(5, TimeUnit.SECONDS);
-                if (!finished) {
-                    logger.warn("Timeout waiting for callbacks to finish");
-                    return;
+        // set whenever events may have been missed, forces a full listing on the next tick
+        private volatile boolean reconcileNeeded = true;
+        private long lastReconcile;
+
+        // whether this replica held the lease of the host on the last tick
+        private volatile boolean leader;
+
+        // while following, the latest write time read so far and when the host was last reloaded whole
+        private Date lastWritten;
+        private long lastFollowReload;
+
+        // time between the end of a cycle and the start of the next one
+        private long delay = updateInterval;
+
+        // what the current cycle does, one of the KIND_ constants
+        private String kind = KIND_FULL;
+        private volatile long lastSuccess = System.currentTimeMillis();
+
+        HostCollector(String host) {
+            this.host = host;
+            executorService = Executors.newSingleThreadScheduledExecutor(
+                    threadModeService.threadFactory("refresh-" + host));
+            TimeGauge.builder("worker.refresh.lag", this, TimeUnit.MILLISECONDS, HostCollector::lag)
+                    .tag("host", host)
+                    .description("Time since the last successful refresh cycle")
+                    .register(meterRegistry);
+        }
+
+        long lag() {
+            return System.currentTimeMillis() - lastSuccess;
+        }
+
+        void start() {
+            executorService.execute(this::run);
+        }
+
+        void shutdown() {
+            executorService.shutdown();
+        }
+
+        private void run() {
+            long started = System.currentTimeMillis();
+            boolean succeeded = tick();
+            long next = nextDelay(succeeded, System.currentTimeMillis() - started);
+            if (next > updateInterval && delay == updateInterval) {
+                logger.info("Backing off refreshes of {} to {} ms", host, next);
+            } else if (next == updateInterval && delay > updateInterval) {
+                logger.info("Refreshes of {} back to {} ms", host, next);
+            }
+            delay = next;
+            if (leader) {
+                // backed off, the next cycle may start after the lease would have run out, keep it until then
+                refreshLeaseService.acquire(LEASE_PREFIX + host, delay + refreshLeaseService.getLeaseDuration());
+            }
+            try {
+                executorService.schedule(this::run, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // shutting down
+            }
+        }
+
+        private long nextDelay(boolean succeeded, long took) {
+            if (!succeeded) {
+                return Math.min(maxInterval, delay * 2);
+            }
+            if (took > updateInterval / 2) {
+                // the daemon is slow, leave it at least as much idle time as the cycle took
+                return Math.min(maxInterval, Math.max(updateInterval, took * 2));
+            }
+            // recover gradually, a daemon that was slow a moment ago may still be busy
+            return Math.max(updateInterval, delay / 2);
+        }
+
+        // returns false if the cycle failed and should back off
+        private boolean tick() {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            try {
+                cycle();
+                lastSuccess = System.currentTimeMillis();
+                sample.stop(refreshTimer(host, kind, "success"));
+                return true;
+            } catch (RuntimeException e) {
+                sample.stop(refreshTimer(host, kind, "failure"));
+                // keep the schedule alive, the next tick will try again
+                logger.error("Background update of {} failed", host, e);
+                return false;
+            }
+        }
+
+        private void cycle() {
+            if (!lead()) {
+                kind = KIND_FOLLOW;
+                follow();
+                return;
+            }
+            kind = KIND_FULL;
+            if (!isEventMode()) {
+                updateDB(host);
+                return;
+            }
+            try {
+                if (dockerEventService.ensureSubscribed(host)) {
+                    reconcileNeeded = true;
                 }
-                workerRepository.saveAll(workers);
-            } catch (InterruptedException e) {
-                throw new RuntimeException("Uncaught InterruptedException", e);
+            } catch (RuntimeException e) {
+                // no events stream, keep listing everything until it comes back
+                logger.warn("Could not subscribe to Docker events of {}", host, e);
+                reconcileNeeded = true;
             }
-        } catch (InternalServerErrorException e) {
-            // Docker API failed, try again next time
-        } catch (Exception e) {
-            throw new RuntimeException("Uncaught exception", e);
+            long now = System.currentTimeMillis();
+            if (reconcileNeeded || now - lastReconcile >= reconcileInterval) {
+                reconcileNeeded = false;
+                lastReconcile = now;
+                updateDB(host);
+            } else {
+                kind = KIND_STATISTICS;
+                updateStats(host);
+            }
+        }
+
+        private void follow() {
+            long now = System.currentTimeMillis();
+            Date since = null;
+            if (lastWritten != null && now - lastFollowReload < reconcileInterval) {
+                // writes are timestamped before they commit, read back far enough for one that committed late
+                since = new Date(lastWritten.getTime() - FOLLOW_OVERLAP);
+            } else {
+                lastWritten = null;
+                lastFollowReload = now;
+            }
+            lastWritten = later(lastWritten, BackgroundUpdateService.this.follow(host, since));
+        }
+
+        // renews the lease, and sets up or tears down what only the leader of the host keeps open
+        private boolean lead() {
+            boolean leading = refreshLeaseService.acquire(LEASE_PREFIX + host);
+            if (leading && !leader) {
+                // another replica may have written in between, nothing we remember can be trusted
+                workerChangeTracker.clear(host);
+                reconcileNeeded = true;
+            } else if (!leading && leader) {
+                // what this replica wrote itself was never read, start following with a reload
+                lastWritten = null;
+                dockerEventService.unsubscribe(host);
+                statsCollectorService.sync(host, Collections.emptyList());
+            }
+            leader = leading;
+            return leading;
+        }
+
+        void onContainerEvent(Event event) {
+            // apply on the update thread of the host so deltas never race with a running cycle
+            executorService.execute(() -> {
+                if (!leader) {
+                    // queued before the lease was lost, the new leader reconciles
+                    return;
+                }
+                try {
+                    checkLease(host);
+                    applyEvent(host, event);
+                } catch (RuntimeException e) {
+                    logger.warn("Could not apply {} event for {} on {}", event.getAction(), event.getId(), host, e);
+                    reconcileNeeded = true;
+                }
+            });
         }
     }
 }
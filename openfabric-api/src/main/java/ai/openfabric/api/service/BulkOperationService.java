@@ -0,0 +1,206 @@
+package ai.openfabric.api.service;
+
+import ai.openfabric.api.model.BulkJob;
+import ai.openfabric.api.model.BulkRequest;
+import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.repository.WorkerRepository;
+import com.github.dockerjava.api.command.ListContainersCmd;
+import com.github.dockerjava.api.command.StartContainerCmd;
+import com.github.dockerjava.api.command.StopContainerCmd;
+import com.github.dockerjava.api.exception.InternalServerErrorException;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.api.exception.NotModifiedException;
+import com.github.dockerjava.api.model.Container;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A service that starts and stops workers, one at a time or many concurrently as a job
+ * <p>
+ * Commands go to the host the worker is stored with.
+ */
+@Service
+public class BulkOperationService {
+
+    public static final String START = "start";
+    public static final String STOP = "stop";
+
+    // how long finished jobs can still be polled
+    public static final long JOB_RETENTION = 3600 * 1000;  // 1 hour
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkOperationService.class);
+
+    @Value("${node.bulk.parallelism:16}")
+    private int parallelism;
+
+    @Value("${node.bulk.stop-timeout:10}")
+    private int stopTimeout;  // seconds the container gets to exit before it is killed
+
+    @Autowired
+    private DockerAPIService dockerAPIService;
+
+    @Autowired
+    private WorkerSnapshotService workerSnapshotService;
+
+    @Autowired
+    private WorkerRepository workerRepository;
+
+    @Autowired
+    private ThreadModeService threadModeService;
+
+    private final Map<String, BulkJob> jobs = new ConcurrentHashMap<>();
+
+    private ExecutorService executorService;
+
+    @PostConstruct
+    public void init() {
+        executorService = threadModeService.pool("bulk", parallelism);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+
+    /**
+     * Start or stop a single worker on the host it is stored with
+     * @param action {@link #START} or {@link #STOP}
+     * @param id the worker id
+     * @return the outcome
+     */
+    public BulkJob.Result run(String action, String id) {
+        return run(action, hostOf(id), id);
+    }
+
+    private BulkJob.Result run(String action, String host, String id) {
+        if (host == null) {
+            return new BulkJob.Result(HttpStatus.NOT_FOUND.value(), "Worker not found");
+        }
+        String done = START.equals(action) ? "started" : "stopped";
+        try {
+            if (START.equals(action)) {
+                try (StartContainerCmd cmd = dockerAPIService.getClient(host).startContainerCmd(id)) {
+                    cmd.exec();
+                }
+            } else {
+                try (StopContainerCmd cmd = dockerAPIService.getLongRunningClient(host).stopContainerCmd(id)) {
+                    cmd.withTimeout(stopTimeout).exec();
+                }
+            }
+        } catch (NotFoundException e) {
+            return new BulkJob.Result(HttpStatus.NOT_FOUND.value(), "Worker not found");
+        } catch (NotModifiedException e) {
+            return new BulkJob.Result(HttpStatus.NOT_MODIFIED.value(), "Worker already " + done);
+        } catch (InternalServerErrorException e) {
+            return new BulkJob.Result(HttpStatus.INTERNAL_SERVER_ERROR.value(), e.getMessage());
+        }
+        return new BulkJob.Result(HttpStatus.OK.value(), "Worker " + done);
+    }
+
+    /**
+     * Start or stop many workers concurrently
+     * @param action {@link #START} or {@link #STOP}
+     * @param request the workers to apply the action to
+     * @return the job, it completes in the background
+     * @throws IllegalArgumentException if the request selects no workers or an unknown host
+     */
+    public BulkJob submit(String action, BulkRequest request) {
+        Map<String, String> hosts = resolve(request);
+        if (hosts.isEmpty()) {
+            throw new IllegalArgumentException("No workers selected");
+        }
+        expireJobs();
+        BulkJob job = new BulkJob(UUID.randomUUID().toString(), action, hosts.size());
+        jobs.put(job.getId(), job);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>(hosts.size());
+        hosts.forEach((id, host) -> futures.add(CompletableFuture.runAsync(
+                () -> job.getResults().put(id, runSafely(action, host, id)), executorService)));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).whenComplete((result, throwable) -> {
+            job.finish();
+            logger.info("Bulk {} {} finished for {} workers", action, job.getId(), job.getTotal());
+        });
+        return job;
+    }
+
+    public BulkJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    private BulkJob.Result runSafely(String action, String host, String id) {
+        try {
+            return run(action, host, id);
+        } catch (RuntimeException e) {
+            return new BulkJob.Result(HttpStatus.INTERNAL_SERVER_ERROR.value(), e.getMessage());
+        }
+    }
+
+    private String hostOf(String id) {
+        if (workerSnapshotService.isReady()) {
+            Worker worker = workerSnapshotService.get().getWorker(id);
+            return worker == null ? null : worker.getHost();
+        }
+        return workerRepository.findLiveById(id).map(Worker::getHost).orElse(null);
+    }
+
+    // worker id -> host, ids that are not stored map to null and end up as not found
+    private Map<String, String> resolve(BulkRequest request) {
+        Map<String, String> hosts = new LinkedHashMap<>();
+        if (request.getIds() != null) {
+            request.getIds().forEach(id -> hosts.put(id, hostOf(id)));
+        }
+        if (request.getName() != null || request.getLabel() != null) {
+            Collection<String> selected = request.getHost() == null
+                    ? dockerAPIService.getHosts()
+                    : Collections.singleton(dockerAPIService.getEndpoint(request.getHost()).getHost());
+            // list every host at once, one that does not answer only loses its own workers
+            Map<String, CompletableFuture<List<Container>>> listings = new LinkedHashMap<>();
+            for (String host : selected) {
+                listings.put(host, CompletableFuture.supplyAsync(() -> list(host, request), executorService));
+            }
+            listings.forEach((host, listing) -> {
+                try {
+                    listing.join().forEach(container -> hosts.put(container.getId(), host));
+                } catch (CompletionException e) {
+                    logger.warn("Could not list the workers of {} for a bulk request", host, e.getCause());
+                }
+            });
+        }
+        return hosts;
+    }
+
+    private List<Container> list(String host, BulkRequest request) {
+        try (ListContainersCmd cmd = dockerAPIService.getClient(host).listContainersCmd().withShowAll(true)) {
+            if (request.getName() != null) {
+                cmd.withNameFilter(Collections.singleton(request.getName()));
+            }
+            if (request.getLabel() != null) {
+                cmd.withLabelFilter(Collections.singleton(request.getLabel()));
+            }
+            return cmd.exec();
+        }
+    }
+
+    private void expireJobs() {
+        long oldest = System.currentTimeMillis() - JOB_RETENTION;
+        jobs.values().removeIf(job -> job.isDone() && job.getFinished().getTime() < oldest);
+    }
+}
@@ -0,0 +1,23 @@
+package ai.openfabric.api.service;
+
+import com.github.dockerjava.api.model.Event;
+
+/**
+ * Receives container lifecycle events from the {@link DockerEventService}
+ */
+public interface ContainerEventListener {
+
+    /**
+     * Called for every container event received on the Docker events stream of a host
+     * @param host the host the event came from
+     * @param event the event
+     */
+    void onContainerEvent(String host, Event event);
+
+    /**
+     * Called when the events stream of a host dropped or was closed and events may have been missed
+     * @param host the host
+     */
+    default void onStreamReset(String host) {
+    }
+}
@@ -0,0 +1,270 @@
+package ai.openfabric.api.service;
+
+import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.model.WorkerStatistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Writes the latest statistics of every worker in the Prometheus text format
+ * <p>
+ * The values come from the {@link WorkerSnapshotService}, so a scrape never touches Docker or the database.
+ * Label sets are encoded once per worker and kept until its name, image or host change. A scrape is rendered
+ * into a buffer of its own, reused by later scrapes, and only then written out, so a scrape of thousands of
+ * workers allocates next to nothing and a slow scraper does not hold up the others.
+ */
+@Service
+public class ContainerMetricsExporter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // buffers kept for the next scrapes, more concurrent scrapes allocate their own
+    private static final int POOLED_BUFFERS = 2;
+
+    private static final Metric[] METRICS = {
+            new Metric("docker_container_cpu_usage_percent", "gauge",
+                    "CPU usage in percent of one core", Metric.CPU),
+            new Metric("docker_container_memory_usage_bytes", "gauge",
+                    "Memory usage without the page cache", Metric.MEMORY),
+            new Metric("docker_container_network_receive_bytes_total", "counter",
+                    "Bytes received on every network", Metric.NETWORK_IN),
+            new Metric("docker_container_network_transmit_bytes_total", "counter",
+                    "Bytes sent on every network", Metric.NETWORK_OUT),
+            new Metric("docker_container_block_read_bytes_total", "counter",
+                    "Bytes read from block devices", Metric.BLOCK_IN),
+            new Metric("docker_container_block_write_bytes_total", "counter",
+                    "Bytes written to block devices", Metric.BLOCK_OUT),
+            new Metric("docker_container_pids", "gauge",
+                    "Number of processes", Metric.PIDS),
+            new Metric("docker_container_stats_stale", "gauge",
+                    "1 if the last refresh could not collect a sample and the values are older", Metric.STALE),
+    };
+
+    @Autowired
+    private WorkerSnapshotService workerSnapshotService;
+
+    // worker id -> its encoded label set
+    private final Map<String, Labels> labels = new ConcurrentHashMap<>();
+
+    // buffers of finished scrapes, each scrape renders into its own so a slow scraper holds up nobody
+    private final Queue<Output> buffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @return true if there is a snapshot to export
+     */
+    public boolean isReady() {
+        return workerSnapshotService.isReady();
+    }
+
+    /**
+     * Write every metric of every worker that has statistics
+     * @param out where to write, it is not closed
+     */
+    public void write(OutputStream out) throws IOException {
+        WorkerSnapshotService.Snapshot snapshot = workerSnapshotService.get();
+        if (snapshot == null) {
+            return;
+        }
+        Output output = buffers.poll();
+        if (output == null) {
+            output = new Output();
+        }
+        try {
+            render(snapshot.getWorkers(), output);
+            out.write(output.bytes, 0, output.position);
+        } finally {
+            output.position = 0;
+            if (buffers.size() < POOLED_BUFFERS) {
+                buffers.offer(output);
+            }
+        }
+        if (labels.size() > snapshot.size()) {
+            labels.keySet().removeIf(id -> snapshot.getWorker(id) == null);
+        }
+    }
+
+    private void render(Collection<Worker> workers, Output output) {
+        for (Metric metric : METRICS) {
+            output.write(metric.header);
+            for (Worker worker : workers) {
+                WorkerStatistics workerStatistics = worker.getWorkerStatistics();
+                if (workerStatistics == null) {
+                    continue;
+                }
+                output.write(metric.name);
+                output.write(labelsOf(worker));
+                metric.writeValue(output, workerStatistics);
+                output.write((byte) '\n');
+            }
+        }
+    }
+
+    private byte[] labelsOf(Worker worker) {
+        Labels cached = labels.get(worker.getId());
+        if (cached == null || !cached.matches(worker)) {
+            cached = new Labels(worker);
+            labels.put(worker.getId(), cached);
+        }
+        return cached.encoded;
+    }
+
+    // a whole scrape in memory, grown as needed and kept that large when it goes back to the pool
+    private static final class Output {
+        private byte[] bytes = new byte[BUFFER_SIZE];
+        private int position;
+
+        void write(byte[] value) {
+            ensure(value.length);
+            System.arraycopy(value, 0, bytes, position, value.length);
+            position += value.length;
+        }
+
+        void write(byte b) {
+            ensure(1);
+            bytes[position++] = b;
+        }
+
+        // digits of a long, most significant first, without going through a String
+        void write(long value) {
+            if (value < 0) {
+                write((byte) '-');
+                if (value == Long.MIN_VALUE) {
+                    write(Long.toString(value).substring(1).getBytes(StandardCharsets.US_ASCII));
+                    return;
+                }
+                value = -value;
+            }
+            long divisor = 1;
+            while (value / divisor >= 10) {
+                divisor *= 10;
+            }
+            for (; divisor > 0; divisor /= 10) {
+                write((byte) ('0' + (value / divisor) % 10));
+            }
+        }
+
+        // a float with three decimals, enough for a percentage
+        void writeDecimal(float value) {
+            if (Float.isNaN(value)) {
+                write(Metric.NAN);
+                return;
+            }
+            if (Float.isInfinite(value)) {
+                write(value > 0 ? Metric.POSITIVE_INFINITY : Metric.NEGATIVE_INFINITY);
+                return;
+            }
+            long thousandths = Math.round(value * 1000.0);
+            if (thousandths < 0) {
+                write((byte) '-');
+                thousandths = -thousandths;
+            }
+            write(thousandths / 1000);
+            write((byte) '.');
+            long fraction = thousandths % 1000;
+            write((byte) ('0' + fraction / 100));
+            write((byte) ('0' + fraction / 10 % 10));
+            write((byte) ('0' + fraction % 10));
+        }
+
+        private void ensure(int length) {
+            if (length > bytes.length - position) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + length));
+            }
+        }
+    }
+
+    private static final class Labels {
+        private final String name;
+        private final String image;
+        private final String host;
+        private final byte[] encoded;
+
+        Labels(Worker worker) {
+            name = worker.getName();
+            image = worker.getImage();
+            host = worker.getHost();
+            String text = "{id=\"" + escape(worker.getId()) + "\",name=\"" + escape(name) + "\",image=\""
+                    + escape(image) + "\",host=\"" + escape(host) + "\"} ";
+            encoded = text.getBytes(StandardCharsets.UTF_8);
+        }
+
+        boolean matches(Worker worker) {
+            return Objects.equals(name, worker.getName()) && Objects.equals(image, worker.getImage())
+                    && Objects.equals(host, worker.getHost());
+        }
+
+        private static String escape(String value) {
+            if (value == null) {
+                return "";
+            }
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+    }
+
+    private static final class Metric {
+        static final int CPU = 0;
+        static final int MEMORY = 1;
+        static final int NETWORK_IN = 2;
+        static final int NETWORK_OUT = 3;
+        static final int BLOCK_IN = 4;
+        static final int BLOCK_OUT = 5;
+        static final int PIDS = 6;
+        static final int STALE = 7;
+
+        static final byte[] NAN = "NaN".getBytes(StandardCharsets.US_ASCII);
+        static final byte[] POSITIVE_INFINITY = "+Inf".getBytes(StandardCharsets.US_ASCII);
+        static final byte[] NEGATIVE_INFINITY = "-Inf".getBytes(StandardCharsets.US_ASCII);
+
+        final byte[] name;
+        final byte[] header;
+        final int field;
+
+        Metric(String name, String type, String help, int field) {
+            this.name = name.getBytes(StandardCharsets.US_ASCII);
+            this.header = ("# HELP " + name + " " + help + "\n# TYPE " + name + " " + type + "\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            this.field = field;
+        }
+
+        void writeValue(Output output, WorkerStatistics workerStatistics) {
+            switch (field) {
+                case CPU:
+                    output.writeDecimal(workerStatistics.getCpuUsage());
+                    break;
+                case MEMORY:
+                    output.write((long) workerStatistics.getMemoryUsage());
+                    break;
+                case NETWORK_IN:
+                    output.write(workerStatistics.getNetworkIn());
+                    break;
+                case NETWORK_OUT:
+                    output.write(workerStatistics.getNetworkOut());
+                    break;
+                case BLOCK_IN:
+                    output.write(workerStatistics.getBlockIn());
+                    break;
+                case BLOCK_OUT:
+                    output.write(workerStatistics.getBlockOut());
+                    break;
+                case PIDS:
+                    output.write(workerStatistics.getPidCount());
+                    break;
+                default:
+                    output.write(workerStatistics.isStale() ? 1L : 0L);
+            }
+        }
+    }
+}
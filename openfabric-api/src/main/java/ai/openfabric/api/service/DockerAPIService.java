@@ -4,50 +4,101 @@ import ai.openfabric.api.model.Worker;
 import ai.openfabric.api.model.WorkerStatistics;
 import com.github.dockerjava.api.DockerClient;
 import com.github.dockerjava.api.model.*;
-import com.github.dockerjava.core.DefaultDockerClientConfig;
-import com.github.dockerjava.core.DockerClientImpl;
-import com.github.dockerjava.httpclient5.ApacheDockerHttpClient;
-import com.github.dockerjava.transport.DockerHttpClient;
 import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PreDestroy;
 import java.io.IOException;
-import java.time.Duration;
 import java.util.*;
 import java.util.stream.Collectors;
 
 /**
- * A service that provides access to the Docker Engine API
+ * A service that provides access to the Docker Engine API of every host in the fleet
+ * <p>
+ * The hosts are read from {@code DOCKER_HOSTS} in {@code .env}, a comma separated list of {@code name=url}.
+ * Without it the single {@code DOCKER_HOST} is used under the name {@value #DEFAULT_HOST}.
  */
 @Service
 public class DockerAPIService {
 
-    private DockerClient dockerClient;
-    private DockerHttpClient httpClient;
+    public static final String DEFAULT_HOST = "default";
 
-    public DockerClient getClient(){
-        return dockerClient;
+    private static final Logger logger = LoggerFactory.getLogger(DockerAPIService.class);
+
+    // ops of the block io entries that are summed up
+    private static final int BLKIO_READ = 1;
+    private static final int BLKIO_WRITE = 2;
+
+    // every thread that extracts statistics reuses its own sample
+    private static final ThreadLocal<StatsSample> SAMPLES = ThreadLocal.withInitial(StatsSample::new);
+
+    private final Map<String, DockerEndpoint> endpoints = new LinkedHashMap<>();
+
+    /**
+     * @return the names of every configured host, in configuration order
+     */
+    public Set<String> getHosts() {
+        return Collections.unmodifiableSet(endpoints.keySet());
+    }
+
+    /**
+     * @param host the host name
+     * @return the clients of the host
+     * @throws IllegalArgumentException if there is no such host
+     */
+    public DockerEndpoint getEndpoint(String host) {
+        DockerEndpoint endpoint = host == null ? null : endpoints.get(host);
+        if (endpoint == null) {
+            throw new IllegalArgumentException("Unknown Docker host: " + host);
+        }
+        return endpoint;
+    }
+
+    public DockerClient getClient(String host) {
+        return getEndpoint(host).getClient();
+    }
+
+    public DockerClient getLongRunningClient(String host) {
+        return getEndpoint(host).getLongRunningClient();
     }
 
-    private DockerAPIService() {
+    public DockerClient getStreamingClient(String host) {
+        return getEndpoint(host).getStreamingClient();
+    }
 
-        LoggerFactory.getLogger(DockerAPIService.class).info("Connecting to Docker Engine API");
+    private DockerAPIService(@Value("${node.stats.max-streams:1000}") int maxStreams,
+                             @Value("${node.docker.transport:pooled}") String transport,
+                             @Value("${node.docker.pool.max-total:100}") int maxTotal,
+                             @Value("${node.docker.pool.max-per-route:100}") int maxPerRoute,
+                             @Value("${node.docker.pool.keep-alive:60000}") long keepAlive,
+                             MeterRegistry meterRegistry) {
 
+        DockerEndpoint.PoolSettings pool = new DockerEndpoint.PoolSettings(maxTotal, maxPerRoute, keepAlive);
         Dotenv dotenv = Dotenv.load();
-        DefaultDockerClientConfig config = DefaultDockerClientConfig.createDefaultConfigBuilder()
-                .withDockerHost(
-                        dotenv.get("DOCKER_HOST", "tcp://localhost:2375")
-                ).build();
-
-        httpClient = new ApacheDockerHttpClient.Builder()
-                .dockerHost(config.getDockerHost())
-                .connectionTimeout(Duration.ofSeconds(5))
-                .responseTimeout(Duration.ofSeconds(5))
-                .build();
-
-        dockerClient = DockerClientImpl.getInstance(config, httpClient);
+        String hosts = dotenv.get("DOCKER_HOSTS", "");
+        if (hosts.trim().isEmpty()) {
+            hosts = DEFAULT_HOST + "=" + dotenv.get("DOCKER_HOST", "tcp://localhost:2375");
+        }
+        for (String entry : hosts.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            int separator = entry.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("DOCKER_HOSTS entries must be name=url, got: " + entry);
+            }
+            String name = entry.substring(0, separator).trim();
+            String url = entry.substring(separator + 1).trim();
+            if (endpoints.containsKey(name)) {
+                throw new IllegalArgumentException("Duplicate Docker host: " + name);
+            }
+            logger.info("Connecting to Docker Engine API of {} at {} over the {} transport", name, url, transport);
+            endpoints.put(name, new DockerEndpoint(name, url, maxStreams, transport, pool, meterRegistry));
+        }
     }
 
     /**
@@ -56,50 +107,115 @@ public class DockerAPIService {
      * @param workerStatistics the WorkerStatistics object to store the information in
      */
     public static void extractStats(Statistics statistics, WorkerStatistics workerStatistics){
-        long network_in = 0, network_out = 0, block_in = 0, block_out = 0;
+        StatsSample sample = SAMPLES.get();
+        extractStats(statistics, sample);
+        sample.copyTo(workerStatistics);
+    }
+
+    /**
+     * Extracts statistics into a sample, without allocating so it can run for every container on every tick
+     * @param statistics the statistics to extract, every value is 0 if null
+     * @param sample the sample to overwrite
+     */
+    public static void extractStats(Statistics statistics, StatsSample sample){
+        if (statistics == null) {
+            sample.clear();
+            return;
+        }
         // calculate memory usage
         MemoryStatsConfig memoryStats = statistics.getMemoryStats();
-        long usedMemory = Optional.ofNullable(memoryStats).map(MemoryStatsConfig::getUsage).orElse(0L);
-        usedMemory -= Optional.ofNullable(memoryStats).map(MemoryStatsConfig::getStats).map(StatsConfig::getCache).orElse(0L);
+        long usedMemory = 0;
+        if (memoryStats != null) {
+            usedMemory = valueOf(memoryStats.getUsage());
+            StatsConfig stats = memoryStats.getStats();
+            if (stats != null) {
+                usedMemory -= valueOf(stats.getCache());
+            }
+        }
         // calculate cpu usage
         CpuStatsConfig cpuStats = statistics.getCpuStats();
         CpuStatsConfig preCpuStats = statistics.getPreCpuStats();
-        long cpu_delta = Optional.ofNullable(cpuStats).map(CpuStatsConfig::getCpuUsage).map(CpuUsageConfig::getTotalUsage).orElse(0L)
-                - Optional.ofNullable(preCpuStats).map(CpuStatsConfig::getCpuUsage).map(CpuUsageConfig::getTotalUsage).orElse(0L);
-        long system_cpu_delta = Optional.ofNullable(cpuStats).map(CpuStatsConfig::getSystemCpuUsage).orElse(0L)
-                - Optional.ofNullable(preCpuStats).map(CpuStatsConfig::getSystemCpuUsage).orElse(0L);
-        long num_cpus = Optional.ofNullable(cpuStats).map(CpuStatsConfig::getOnlineCpus).orElse(0L);
+        long cpu_delta = totalUsage(cpuStats) - totalUsage(preCpuStats);
+        long system_cpu_delta = systemUsage(cpuStats) - systemUsage(preCpuStats);
+        long num_cpus = cpuStats == null ? 0 : valueOf(cpuStats.getOnlineCpus());
         float cpu_percent = 100.0f * cpu_delta / system_cpu_delta * num_cpus;
         // number of pids
-        long pid_count = Optional.ofNullable(statistics.getPidsStats()).map(PidsStatsConfig::getCurrent).orElse(0L);
+        PidsStatsConfig pidsStats = statistics.getPidsStats();
+        long pid_count = pidsStats == null ? 0 : valueOf(pidsStats.getCurrent());
         // calculate network usage
-        Optional<Collection<StatisticNetworksConfig>> networks = Optional.ofNullable(statistics.getNetworks()).map(Map::values);
-        if (networks.isPresent()) {
-            for (StatisticNetworksConfig networkStats : networks.get()) {
-                network_in += Optional.ofNullable(networkStats.getRxBytes()).orElse(0L);
-                network_out += Optional.ofNullable(networkStats.getTxBytes()).orElse(0L);
+        long network_in = 0, network_out = 0;
+        Map<String, StatisticNetworksConfig> networks = statistics.getNetworks();
+        if (networks != null) {
+            for (StatisticNetworksConfig networkStats : networks.values()) {
+                if (networkStats != null) {
+                    network_in += valueOf(networkStats.getRxBytes());
+                    network_out += valueOf(networkStats.getTxBytes());
+                }
             }
         }
         // calculate block io
-        Optional<List<BlkioStatEntry>> blkioStats = Optional.ofNullable(statistics.getBlkioStats()).map(BlkioStatsConfig::getIoServiceBytesRecursive);
-        if (blkioStats.isPresent()){
-            for (BlkioStatEntry blkioStat : blkioStats.get()) {
-                if (blkioStat.getOp().equalsIgnoreCase("Read")) {
-                    block_in += blkioStat.getValue();
-                } else if (blkioStat.getOp().equalsIgnoreCase("Write")) {
-                    block_out += blkioStat.getValue();
+        long block_in = 0, block_out = 0;
+        BlkioStatsConfig blkioStats = statistics.getBlkioStats();
+        List<BlkioStatEntry> entries = blkioStats == null ? null : blkioStats.getIoServiceBytesRecursive();
+        if (entries != null) {
+            // indexed, Jackson reads arrays into ArrayLists
+            for (int i = 0; i < entries.size(); i++) {
+                BlkioStatEntry entry = entries.get(i);
+                switch (opOf(entry.getOp())) {
+                    case BLKIO_READ:
+                        block_in += valueOf(entry.getValue());
+                        break;
+                    case BLKIO_WRITE:
+                        block_out += valueOf(entry.getValue());
+                        break;
+                    default:
                 }
             }
         }
 
-        workerStatistics.setMemoryUsage(usedMemory);
-        workerStatistics.setCpuUsage(cpu_percent);
-        workerStatistics.setPidCount(pid_count);
-        workerStatistics.setNetworkIn(network_in);
-        workerStatistics.setNetworkOut(network_out);
-        workerStatistics.setBlockIn(block_in);
-        workerStatistics.setBlockOut(block_out);
+        sample.memoryUsage = usedMemory;
+        sample.cpuUsage = cpu_percent;
+        sample.pidCount = pid_count;
+        sample.networkIn = network_in;
+        sample.networkOut = network_out;
+        sample.blockIn = block_in;
+        sample.blockOut = block_out;
+    }
 
+    private static long valueOf(Long value) {
+        return value == null ? 0 : value;
+    }
+
+    private static long totalUsage(CpuStatsConfig cpuStats) {
+        CpuUsageConfig cpuUsage = cpuStats == null ? null : cpuStats.getCpuUsage();
+        return cpuUsage == null ? 0 : valueOf(cpuUsage.getTotalUsage());
+    }
+
+    private static long systemUsage(CpuStatsConfig cpuStats) {
+        return cpuStats == null ? 0 : valueOf(cpuStats.getSystemCpuUsage());
+    }
+
+    // cgroup v1 reports "Read" and "Write" next to "Sync", "Async" and "Total", cgroup v2 "read" and "write"
+    private static int opOf(String op) {
+        if (op == null) {
+            return 0;
+        }
+        switch (op) {
+            case "Read":
+            case "read":
+                return BLKIO_READ;
+            case "Write":
+            case "write":
+                return BLKIO_WRITE;
+            case "Sync":
+            case "Async":
+            case "Discard":
+            case "Total":
+                return 0;
+            default:
+                // any other spelling, equalsIgnoreCase returns right away for ops of another length
+                return op.equalsIgnoreCase("Read") ? BLKIO_READ : op.equalsIgnoreCase("Write") ? BLKIO_WRITE : 0;
+        }
     }
 
     /**
@@ -120,11 +236,13 @@ public class DockerAPIService {
         // store only public ports, without duplicates
         List<Integer> portsNoDuplicates = Arrays.stream(container.getPorts()).map(ContainerPort::getPublicPort).distinct().collect(Collectors.toList());
         worker.setPorts(portsNoDuplicates);
+        worker.setLabels(container.getLabels());
     }
 
     @PreDestroy
     public void destroy() throws IOException {
-        dockerClient.close();
-        httpClient.close();
+        for (DockerEndpoint endpoint : endpoints.values()) {
+            endpoint.close();
+        }
     }
 }
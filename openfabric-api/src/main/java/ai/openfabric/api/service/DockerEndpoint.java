@@ -0,0 +1,173 @@
+package ai.openfabric.api.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.model.Statistics;
+import com.github.dockerjava.core.DefaultDockerClientConfig;
+import com.github.dockerjava.core.DockerClientImpl;
+import com.github.dockerjava.httpclient5.ApacheDockerHttpClient;
+import com.github.dockerjava.transport.DockerHttpClient;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * The clients of a single Docker Engine, every worker belongs to exactly one
+ */
+public class DockerEndpoint implements Closeable {
+
+    // this service's own connection pool, see PooledDockerHttpClient
+    public static final String TRANSPORT_POOLED = "pooled";
+    // docker-java's client with its default pool
+    public static final String TRANSPORT_APACHE = "apache";
+
+    private static final Duration CONNECTION_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration RESPONSE_TIMEOUT = Duration.ofSeconds(5);
+
+    @Getter
+    private final String host;
+
+    @Getter
+    private final String dockerHost;
+
+    private final DockerClient dockerClient;
+    private final DockerHttpClient httpClient;
+    private final ObjectMapper objectMapper;
+
+    // long-lived streams (events, stats, ...) can stay idle, so they get a client without a response timeout
+    // and a pool large enough to hold one connection per streamed container
+    private final DockerClient streamingClient;
+    private final DockerHttpClient streamingHttpClient;
+
+    // commands that can legitimately take longer than the response timeout, like stopping a container
+    private final DockerClient longRunningClient;
+    private final DockerHttpClient longRunningHttpClient;
+
+    /**
+     * @param host the name workers of this engine are stored under
+     * @param dockerHost the Docker host url, like tcp://localhost:2375 or unix:///var/run/docker.sock
+     * @param maxStreams the most stats streams that are kept open to this engine
+     * @param transport {@value #TRANSPORT_POOLED} or {@value #TRANSPORT_APACHE}
+     * @param pool the connection pool of the default and long-running clients
+     * @param registry where the clients register their meters
+     */
+    public DockerEndpoint(String host, String dockerHost, int maxStreams, String transport, PoolSettings pool,
+                          MeterRegistry registry) {
+        this.host = host;
+        this.dockerHost = dockerHost;
+
+        DefaultDockerClientConfig config = DefaultDockerClientConfig.createDefaultConfigBuilder()
+                .withDockerHost(dockerHost).build();
+        if (!TRANSPORT_POOLED.equals(transport) && !TRANSPORT_APACHE.equals(transport)) {
+            throw new IllegalArgumentException("Unknown Docker transport: " + transport);
+        }
+        boolean pooled = TRANSPORT_POOLED.equals(transport);
+
+        httpClient = new InstrumentedDockerHttpClient(pooled
+                ? new PooledDockerHttpClient(config.getDockerHost(), pool.getMaxTotal(), pool.getMaxPerRoute(),
+                        pool.getKeepAlive(), CONNECTION_TIMEOUT, RESPONSE_TIMEOUT, registry, tags(host, "default"))
+                : new ApacheDockerHttpClient.Builder()
+                        .dockerHost(config.getDockerHost())
+                        .connectionTimeout(CONNECTION_TIMEOUT)
+                        .responseTimeout(RESPONSE_TIMEOUT)
+                        .build(), registry, host, "default");
+
+        dockerClient = DockerClientImpl.getInstance(config, httpClient);
+        objectMapper = config.getObjectMapper();
+
+        int maxStreamConnections = maxStreams + 1;  // + the events stream
+        streamingHttpClient = new InstrumentedDockerHttpClient(pooled
+                ? new PooledDockerHttpClient(config.getDockerHost(), maxStreamConnections, maxStreamConnections,
+                        pool.getKeepAlive(), CONNECTION_TIMEOUT, null, registry, tags(host, "streaming"))
+                : new ApacheDockerHttpClient.Builder()
+                        .dockerHost(config.getDockerHost())
+                        .maxConnections(maxStreamConnections)
+                        .connectionTimeout(CONNECTION_TIMEOUT)
+                        .build(), registry, host, "streaming");
+
+        streamingClient = DockerClientImpl.getInstance(config, streamingHttpClient);
+
+        longRunningHttpClient = new InstrumentedDockerHttpClient(pooled
+                ? new PooledDockerHttpClient(config.getDockerHost(), pool.getMaxTotal(), pool.getMaxPerRoute(),
+                        pool.getKeepAlive(), CONNECTION_TIMEOUT, null, registry, tags(host, "long-running"))
+                : new ApacheDockerHttpClient.Builder()
+                        .dockerHost(config.getDockerHost())
+                        .connectionTimeout(CONNECTION_TIMEOUT)
+                        .build(), registry, host, "long-running");
+
+        longRunningClient = DockerClientImpl.getInstance(config, longRunningHttpClient);
+    }
+
+    private static Tags tags(String host, String client) {
+        return Tags.of("host", host, "client", client);
+    }
+
+    public DockerClient getClient() {
+        return dockerClient;
+    }
+
+    public DockerClient getStreamingClient() {
+        return streamingClient;
+    }
+
+    public DockerClient getLongRunningClient() {
+        return longRunningClient;
+    }
+
+    /**
+     * Request a single stats sample on the calling thread, docker-java would start a thread of its own for it
+     * @param id the container id
+     * @return the sample, null if there is no such container
+     * @throws IOException if the request failed or timed out
+     */
+    public Statistics stats(String id) throws IOException {
+        DockerHttpClient.Request request = DockerHttpClient.Request.builder()
+                .method(DockerHttpClient.Request.Method.GET)
+                .path("/containers/" + id + "/stats?stream=false")
+                .build();
+        try (DockerHttpClient.Response response = httpClient.execute(request)) {
+            if (response.getStatusCode() == 404) {
+                return null;
+            }
+            if (response.getStatusCode() != 200) {
+                throw new IOException("Stats of " + id + " answered with status " + response.getStatusCode());
+            }
+            return objectMapper.readValue(response.getBody(), Statistics.class);
+        } catch (RuntimeException e) {
+            // the transports wrap what went wrong on the connection
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The connection pool of the clients that are not streaming
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class PoolSettings {
+        // the most connections of a client
+        private final int maxTotal;
+        // the most connections of a client to the engine
+        private final int maxPerRoute;
+        // milliseconds an idle connection is kept for reuse
+        private final long keepAlive;
+    }
+
+    @Override
+    public void close() throws IOException {
+        dockerClient.close();
+        httpClient.close();
+        streamingClient.close();
+        streamingHttpClient.close();
+        longRunningClient.close();
+        longRunningHttpClient.close();
+    }
+}
@@ -0,0 +1,141 @@
+package ai.openfabric.api.service;
+
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A service that subscribes to the Docker Engine events stream of every host and forwards container lifecycle events
+ */
+@Service
+public class DockerEventService {
+
+    // container actions that change what we store about a worker, or its inspected details;
+    // health_status matches the actions of every health status, like "health_status: healthy"
+    public static final String[] CONTAINER_ACTIONS = {"create", "start", "die", "destroy", "rename", "pause",
+            "unpause", "update", "health_status"};
+
+    private static final Logger logger = LoggerFactory.getLogger(DockerEventService.class);
+
+    @Autowired
+    private DockerAPIService dockerAPIService;
+
+    private final List<ContainerEventListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    // host -> live subscription
+    private final Map<String, EventCallback> subscriptions = new ConcurrentHashMap<>();
+
+    public void addListener(ContainerEventListener listener) {
+        listeners.add(listener);
+    }
+
+    public boolean isSubscribed(String host) {
+        return subscriptions.containsKey(host);
+    }
+
+    /**
+     * Subscribe to the events stream of a host if there is no live subscription
+     * @param host the host
+     * @return true if a new subscription was opened, meaning events may have been missed before it
+     */
+    public boolean ensureSubscribed(String host) {
+        // each host subscribes from its own update thread, an unreachable one must not block the others
+        synchronized (lockOf(host)) {
+            if (subscriptions.containsKey(host)) {
+                return false;
+            }
+            EventCallback callback = new EventCallback(host);
+            dockerAPIService.getStreamingClient(host).eventsCmd()
+                    .withEventTypeFilter(EventType.CONTAINER)
+                    .withEventFilter(CONTAINER_ACTIONS)
+                    .exec(callback);
+            subscriptions.put(host, callback);
+            logger.info("Subscribed to Docker events stream of {}", host);
+            return true;
+        }
+    }
+
+    /**
+     * Close the events stream of a host, its listeners are told like when it drops since they miss what follows
+     * @param host the host
+     */
+    public void unsubscribe(String host) {
+        synchronized (lockOf(host)) {
+            EventCallback callback = subscriptions.remove(host);
+            if (callback == null) {
+                return;
+            }
+            try {
+                callback.close();
+            } catch (IOException e) {
+                logger.debug("Could not close Docker events stream of {}", host, e);
+            }
+        }
+        listeners.forEach(listener -> listener.onStreamReset(host));
+    }
+
+    private Object lockOf(String host) {
+        return locks.computeIfAbsent(host, key -> new Object());
+    }
+
+    private void dropped(EventCallback callback) {
+        if (!subscriptions.remove(callback.host, callback)) {
+            return;
+        }
+        listeners.forEach(listener -> listener.onStreamReset(callback.host));
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        for (EventCallback callback : subscriptions.values()) {
+            subscriptions.remove(callback.host, callback);
+            callback.close();
+        }
+    }
+
+    private class EventCallback extends ResultCallback.Adapter<Event> {
+
+        private final String host;
+
+        EventCallback(String host) {
+            this.host = host;
+        }
+
+        @Override
+        public void onNext(Event event) {
+            for (ContainerEventListener listener : listeners) {
+                try {
+                    listener.onContainerEvent(host, event);
+                } catch (RuntimeException e) {
+                    logger.warn("Container event listener failed for {} on {}", event.getId(), host, e);
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            logger.warn("Docker events stream of {} failed", host, throwable);
+            dropped(this);
+            super.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            logger.warn("Docker events stream of {} closed", host);
+            dropped(this);
+            super.onComplete();
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package ai.openfabric.api.service;
+
+import ai.openfabric.api.model.FleetAggregate;
+import ai.openfabric.api.model.TopWorker;
+import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.model.WorkerStatistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A service that keeps fleet wide aggregates of the latest statistics up to date as samples arrive
+ * <p>
+ * CPU and memory totals are running sums per image and per state, adjusted by what a sample changes for its
+ * worker. The workers with the most CPU, memory, network or block io are read from a max-heap per metric that
+ * each sample sifts its worker through. Neither needs a scan of the fleet per request.
+ * Workers are grouped by the info of the refresh cycles and events, a worker that stopped counts as using nothing.
+ * Samples of workers the cycles did not describe yet, or no longer list, are ignored. A value that is not finite,
+ * like the cpu of a sample without a previous one, counts as 0.
+ */
+@Service
+public class FleetAggregateService implements StatsSampleListener {
+
+    public static final String GROUP_IMAGE = "image";
+    public static final String GROUP_STATE = "state";
+
+    public static final String METRIC_CPU = "cpu";
+    public static final String METRIC_MEMORY = "memory";
+    public static final String METRIC_NETWORK = "network";
+    public static final String METRIC_BLOCK = "block";
+
+    // index of each metric in Entry.values and heaps
+    private static final List<String> METRICS = Arrays.asList(METRIC_CPU, METRIC_MEMORY, METRIC_NETWORK, METRIC_BLOCK);
+
+    // cpu is summed in thousandths of a percentage point, so the running sums do not drift
+    private static final double CPU_SCALE = 1000;
+
+    @Autowired
+    private StatsCollectorService statsCollectorService;
+
+    // all guarded by this
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Group> byImage = new HashMap<>();
+    private final Map<String, Group> byState = new HashMap<>();
+    private final TopHeap[] heaps = new TopHeap[METRICS.size()];
+
+    @PostConstruct
+    public void init() {
+        for (int metric = 0; metric < heaps.length; metric++) {
+            heaps[metric] = new TopHeap(metric);
+        }
+        statsCollectorService.addListener(this);
+    }
+
+    @Override
+    public synchronized void onSample(String id, WorkerStatistics sample) {
+        Entry entry = entries.get(id);
+        // a worker new to the cycle gets its first sample once the cycle is published, a removed one none
+        if (entry != null) {
+            apply(entry, sample);
+        }
+    }
+
+    /**
+     * Describe the workers of a host by a full refresh cycle, the ones it did not list are gone
+     * @param host the host that was refreshed
+     * @param workers every worker of the host
+     */
+    public synchronized void publish(String host, Collection<Worker> workers) {
+        Set<String> listed = new HashSet<>(workers.size() * 2);
+        for (Worker worker : workers) {
+            listed.add(worker.getId());
+            Entry entry = entries.get(worker.getId());
+            if (entry != null) {
+                describe(entry, worker);
+                continue;
+            }
+            entry = add(worker.getId());
+            describe(entry, worker);
+            // its samples of this cycle came before it was described
+            if (worker.getWorkerStatistics() != null) {
+                apply(entry, worker.getWorkerStatistics());
+            }
+        }
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (host.equals(entry.host) && !listed.contains(entry.id)) {
+                iterator.remove();
+                drop(entry);
+            }
+        }
+    }
+
+    /**
+     * Describe a single worker, after a lifecycle event
+     * @param worker the worker
+     */
+    public synchronized void publishWorker(Worker worker) {
+        Entry entry = entries.get(worker.getId());
+        describe(entry == null ? add(worker.getId()) : entry, worker);
+    }
+
+    /**
+     * Forget a worker whose container is gone
+     * @param id the worker id
+     */
+    public synchronized void remove(String id) {
+        Entry entry = entries.remove(id);
+        if (entry != null) {
+            drop(entry);
+        }
+    }
+
+    /**
+     * @param groupBy {@value #GROUP_IMAGE} or {@value #GROUP_STATE}
+     * @return the totals and averages of every group, by key
+     * @throws IllegalArgumentException if the grouping is unknown
+     */
+    public synchronized List<FleetAggregate> aggregate(String groupBy) {
+        Map<String, Group> groups;
+        if (GROUP_IMAGE.equals(groupBy)) {
+            groups = byImage;
+        } else if (GROUP_STATE.equals(groupBy)) {
+            groups = byState;
+        } else {
+            throw new IllegalArgumentException("Unknown group: " + groupBy);
+        }
+        List<FleetAggregate> aggregates = new ArrayList<>(groups.size());
+        new TreeMap<>(groups).forEach((key, group) -> aggregates.add(new FleetAggregate(key, group.workers,
+                group.cpu / CPU_SCALE, group.memory,
+                group.cpu / CPU_SCALE / group.workers, group.memory / group.workers)));
+        return aggregates;
+    }
+
+    /**
+     * @param metric one of the METRIC_ constants
+     * @param limit the most workers to return
+     * @return the workers with the highest values of the metric, highest first
+     * @throws IllegalArgumentException if the metric is unknown
+     */
+    public synchronized List<TopWorker> top(String metric, int limit) {
+        int index = METRICS.indexOf(metric);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown metric: " + metric);
+        }
+        List<TopWorker> top = new ArrayList<>(limit);
+        for (Entry entry : heaps[index].top(limit)) {
+            top.add(new TopWorker(entry.id, entry.host, entry.name, entry.image, entry.state, entry.values[index]));
+        }
+        return top;
+    }
+
+    private Entry add(String id) {
+        Entry entry = new Entry(id);
+        entries.put(id, entry);
+        for (TopHeap heap : heaps) {
+            heap.update(entry);
+        }
+        return entry;
+    }
+
+    private void apply(Entry entry, WorkerStatistics sample) {
+        if (!entry.holdsResources()) {
+            return;
+        }
+        double cpu = finite(sample.getCpuUsage());
+        double memory = finite(sample.getMemoryUsage());
+        ungroup(entry);
+        entry.cpu = Math.round(cpu * CPU_SCALE);
+        entry.memory = (long) memory;
+        // in the order of METRICS
+        entry.values[0] = cpu;
+        entry.values[1] = memory;
+        entry.values[2] = finite((double) sample.getNetworkInRate() + sample.getNetworkOutRate());
+        entry.values[3] = finite((double) sample.getBlockInRate() + sample.getBlockOutRate());
+        group(entry);
+        for (TopHeap heap : heaps) {
+            heap.update(entry);
+        }
+    }
+
+    private static double finite(double value) {
+        return Double.isFinite(value) ? value : 0;
+    }
+
+    private void describe(Entry entry, Worker worker) {
+        ungroup(entry);
+        entry.host = worker.getHost();
+        entry.name = worker.getName();
+        entry.image = worker.getImage();
+        entry.state = worker.getState();
+        if (!entry.holdsResources()) {
+            entry.cpu = 0;
+            entry.memory = 0;
+            Arrays.fill(entry.values, 0);
+            for (TopHeap heap : heaps) {
+                heap.update(entry);
+            }
+        }
+        group(entry);
+    }
+
+    private void drop(Entry entry) {
+        ungroup(entry);
+        for (TopHeap heap : heaps) {
+            heap.remove(entry);
+        }
+    }
+
+    private void group(Entry entry) {
+        if (entry.image != null) {
+            byImage.computeIfAbsent(entry.image, key -> new Group()).add(entry, 1);
+        }
+        if (entry.state != null) {
+            byState.computeIfAbsent(entry.state, key -> new Group()).add(entry, 1);
+        }
+    }
+
+    private void ungroup(Entry entry) {
+        if (entry.image != null) {
+            ungroup(byImage, entry.image, entry);
+        }
+        if (entry.state != null) {
+            ungroup(byState, entry.state, entry);
+        }
+    }
+
+    private static void ungroup(Map<String, Group> groups, String key, Entry entry) {
+        Group group = groups.get(key);
+        group.add(entry, -1);
+        if (group.workers == 0) {
+            groups.remove(key);
+        }
+    }
+
+    private static final class Entry {
+
+        private final String id;
+        private String host;
+        private String name;
+        private String image;
+        private String state;
+
+        // what the worker adds to its groups
+        private long cpu;
+        private long memory;
+
+        // by metric, what the heaps order by and where the worker sits in each
+        private final double[] values = new double[METRICS.size()];
+        private final int[] slots = new int[METRICS.size()];
+
+        Entry(String id) {
+            this.id = id;
+            Arrays.fill(slots, -1);
+        }
+
+        // a stopped worker may still get a sample before its state is known
+        boolean holdsResources() {
+            return state == null || "running".equals(state) || "paused".equals(state);
+        }
+    }
+
+    private static final class Group {
+
+        private long workers;
+        private long cpu;
+        private long memory;
+
+        void add(Entry entry, int sign) {
+            workers += sign;
+            cpu += sign * entry.cpu;
+            memory += sign * entry.memory;
+        }
+    }
+
+    // a max-heap of entries by one metric, entries keep their slot so any of them is sifted in place
+    private static final class TopHeap {
+
+        private final int metric;
+        private Entry[] heap = new Entry[64];
+        private int size;
+
+        TopHeap(int metric) {
+            this.metric = metric;
+        }
+
+        void update(Entry entry) {
+            int slot = entry.slots[metric];
+            if (slot < 0) {
+                if (size == heap.length) {
+                    heap = Arrays.copyOf(heap, size * 2);
+                }
+                slot = size++;
+                place(entry, slot);
+            }
+            siftDown(siftUp(slot));
+        }
+
+        void remove(Entry entry) {
+            int slot = entry.slots[metric];
+            if (slot < 0) {
+                return;
+            }
+            entry.slots[metric] = -1;
+            Entry last = heap[--size];
+            heap[size] = null;
+            if (slot < size) {
+                place(last, slot);
+                siftDown(siftUp(slot));
+            }
+        }
+
+        // best first from the root, only the children of the entries taken are compared
+        List<Entry> top(int limit) {
+            List<Entry> top = new ArrayList<>(Math.min(limit, size));
+            PriorityQueue<Integer> frontier = new PriorityQueue<>((a, b) -> before(heap[a], heap[b]) ? -1 : 1);
+            if (size > 0) {
+                frontier.add(0);
+            }
+            while (!frontier.isEmpty() && top.size() < limit) {
+                int slot = frontier.poll();
+                top.add(heap[slot]);
+                int child = 2 * slot + 1;
+                if (child < size) {
+                    frontier.add(child);
+                }
+                if (child + 1 < size) {
+                    frontier.add(child + 1);
+                }
+            }
+            return top;
+        }
+
+        private int siftUp(int slot) {
+            Entry entry = heap[slot];
+            while (slot > 0) {
+                int parent = (slot - 1) >>> 1;
+                if (!before(entry, heap[parent])) {
+                    break;
+                }
+                place(heap[parent], slot);
+                slot = parent;
+            }
+            place(entry, slot);
+            return slot;
+        }
+
+        private void siftDown(int slot) {
+            Entry entry = heap[slot];
+            int half = size >>> 1;
+            while (slot < half) {
+                int child = 2 * slot + 1;
+                if (child + 1 < size && before(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!before(heap[child], entry)) {
+                    break;
+                }
+                place(heap[child], slot);
+                slot = child;
+            }
+            place(entry, slot);
+        }
+
+        private void place(Entry entry, int slot) {
+            heap[slot] = entry;
+            entry.slots[metric] = slot;
+        }
+
+        // higher values first, ties by id so the order is stable
+        private boolean before(Entry a, Entry b) {
+            int c = Double.compare(a.values[metric], b.values[metric]);
+            return c > 0 || (c == 0 && a.id.compareTo(b.id) < 0);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package ai.openfabric.api.service;
+
+import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.model.WorkerDetails;
+import com.github.dockerjava.api.command.InspectContainerCmd;
+import com.github.dockerjava.api.command.InspectContainerResponse;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.HostConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * A service that keeps the inspected details of recently requested workers
+ * <p>
+ * Details are inspected on the first request for a worker and kept until its container changes. A lifecycle
+ * event of the container drops them, and so does a state that differs from the one they were inspected in.
+ * A restart between two refresh cycles or a {@code docker update} keep the state, so while the events stream of
+ * the host is not followed, like in {@code poll} mode, details are only kept for {@code node.inspect.ttl}.
+ * The least recently requested ones are evicted beyond {@code node.inspect.cache-size}.
+ * <p>
+ * The values of the environment often hold secrets and the details are served without authentication, so only
+ * the names of the variables are kept.
+ */
+@Service
+public class InspectCacheService implements ContainerEventListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(InspectCacheService.class);
+
+    @Value("${node.inspect.cache-size:10000}")
+    private int cacheSize;
+
+    @Value("${node.inspect.ttl:10000}")
+    private long ttl;  // milliseconds details are kept while the events stream of their host is not followed
+
+    @Autowired
+    private DockerAPIService dockerAPIService;
+
+    @Autowired
+    private DockerEventService dockerEventService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // access ordered, guarded by itself
+    private final LinkedHashMap<String, CachedDetails> entries = new LinkedHashMap<String, CachedDetails>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedDetails> eldest) {
+            if (size() <= cacheSize) {
+                return false;
+            }
+            evictions.increment();
+            return true;
+        }
+    };
+
+    // worker id -> the inspection of its details that is running, an invalidation drops it so it is not cached
+    private final Map<String, Inspection> inspections = new HashMap<>();
+
+    private Counter hits;
+    private Counter misses;
+    private Counter evictions;
+
+    @PostConstruct
+    public void init() {
+        hits = meterRegistry.counter("worker.inspect.cache", "result", "hit");
+        misses = meterRegistry.counter("worker.inspect.cache", "result", "miss");
+        evictions = meterRegistry.counter("worker.inspect.cache.evictions");
+        Gauge.builder("worker.inspect.cache.size", this, InspectCacheService::size)
+                .description("Workers whose inspected details are cached")
+                .register(meterRegistry);
+        dockerEventService.addListener(this);
+    }
+
+    /**
+     * @param worker the worker
+     * @return the details of its container, inspected unless they are cached, null if it cannot be inspected
+     */
+    public WorkerDetails get(Worker worker) {
+        Inspection inspection = new Inspection(worker.getHost());
+        synchronized (entries) {
+            CachedDetails entry = entries.get(worker.getId());
+            if (entry != null && isFresh(entry, worker)) {
+                hits.increment();
+                return entry.details;
+            }
+            misses.increment();
+            inspections.put(worker.getId(), inspection);
+        }
+        WorkerDetails details = inspect(worker);
+        synchronized (entries) {
+            if (inspections.remove(worker.getId(), inspection) && details != null) {
+                entries.put(worker.getId(), new CachedDetails(worker.getHost(), worker.getState(), inspection.started,
+                        details));
+            }
+        }
+        return details;
+    }
+
+    /**
+     * Drop the details of a worker
+     * @param id the worker id
+     */
+    public void invalidate(String id) {
+        synchronized (entries) {
+            inspections.remove(id);
+            entries.remove(id);
+        }
+    }
+
+    @Override
+    public void onContainerEvent(String host, Event event) {
+        if (event.getId() != null) {
+            invalidate(event.getId());
+        }
+    }
+
+    @Override
+    public void onStreamReset(String host) {
+        // events of the host may have been missed
+        synchronized (entries) {
+            inspections.values().removeIf(inspection -> host.equals(inspection.host));
+            entries.values().removeIf(entry -> host.equals(entry.host));
+        }
+    }
+
+    private boolean isFresh(CachedDetails entry, Worker worker) {
+        if (!Objects.equals(entry.state, worker.getState())) {
+            return false;
+        }
+        // without events a restart or an update would go unnoticed
+        return dockerEventService.isSubscribed(entry.host) || System.currentTimeMillis() - entry.inspectedAt < ttl;
+    }
+
+    private int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private WorkerDetails inspect(Worker worker) {
+        try (InspectContainerCmd inspectContainerCmd = dockerAPIService.getClient(worker.getHost())
+                .inspectContainerCmd(worker.getId())) {
+            return extractDetails(inspectContainerCmd.exec());
+        } catch (NotFoundException e) {
+            return null;
+        } catch (RuntimeException e) {
+            logger.warn("Could not inspect {} on {}", worker.getId(), worker.getHost(), e);
+            return null;
+        }
+    }
+
+    private static WorkerDetails extractDetails(InspectContainerResponse response) {
+        WorkerDetails details = new WorkerDetails();
+        InspectContainerResponse.ContainerState state = response.getState();
+        if (state != null) {
+            details.setStartedAt(state.getStartedAt());
+            details.setFinishedAt(state.getFinishedAt());
+            details.setOomKilled(state.getOOMKilled());
+            if (state.getHealth() != null) {
+                details.setHealth(state.getHealth().getStatus());
+            }
+        }
+        details.setRestartCount(response.getRestartCount());
+        String[] env = response.getConfig() == null ? null : response.getConfig().getEnv();
+        details.setEnvNames(env == null ? Collections.emptyList() : Arrays.stream(env)
+                .map(variable -> variable.indexOf('=') < 0 ? variable : variable.substring(0, variable.indexOf('=')))
+                .collect(Collectors.toList()));
+        List<InspectContainerResponse.Mount> mounts = response.getMounts();
+        details.setMounts(mounts == null ? Collections.emptyList() : mounts.stream()
+                .map(mount -> mount.getSource() + ":"
+                        + (mount.getDestination() == null ? "" : mount.getDestination().getPath())
+                        + (Boolean.FALSE.equals(mount.getRW()) ? ":ro" : ""))
+                .collect(Collectors.toList()));
+        HostConfig hostConfig = response.getHostConfig();
+        if (hostConfig != null) {
+            details.setMemoryLimit(hostConfig.getMemory());
+            details.setNanoCpus(hostConfig.getNanoCPUs());
+            details.setCpuShares(hostConfig.getCpuShares());
+            details.setPidsLimit(hostConfig.getPidsLimit());
+            if (hostConfig.getRestartPolicy() != null) {
+                details.setRestartPolicy(hostConfig.getRestartPolicy().getName());
+            }
+        }
+        return details;
+    }
+
+    private static final class CachedDetails {
+
+        private final String host;
+        // the state of the worker when it was inspected
+        private final String state;
+        private final long inspectedAt;
+        private final WorkerDetails details;
+
+        CachedDetails(String host, String state, long inspectedAt, WorkerDetails details) {
+            this.host = host;
+            this.state = state;
+            this.inspectedAt = inspectedAt;
+            this.details = details;
+        }
+    }
+
+    private static final class Inspection {
+
+        private final String host;
+        private final long started = System.currentTimeMillis();
+
+        Inspection(String host) {
+            this.host = host;
+        }
+    }
+}
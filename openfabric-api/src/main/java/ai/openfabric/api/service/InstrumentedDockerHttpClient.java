@@ -0,0 +1,114 @@
+package ai.openfabric.api.service;
+
+import com.github.dockerjava.transport.DockerHttpClient;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Times the requests of a Docker HTTP client and counts the connections they hold
+ * <p>
+ * A request holds its pooled connection until its response is closed, for streams that is when they end.
+ */
+class InstrumentedDockerHttpClient implements DockerHttpClient {
+
+    private final DockerHttpClient delegate;
+    private final MeterRegistry registry;
+    private final Tags tags;
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * @param delegate the client to instrument
+     * @param registry where to register the meters
+     * @param host the Docker host name
+     * @param client which of the host's clients this is
+     */
+    InstrumentedDockerHttpClient(DockerHttpClient delegate, MeterRegistry registry, String host, String client) {
+        this.delegate = delegate;
+        this.registry = registry;
+        this.tags = Tags.of("host", host, "client", client);
+        Gauge.builder("docker.http.connections.active", active, AtomicInteger::get)
+                .tags(tags)
+                .description("Connections held by requests and open streams")
+                .register(registry);
+    }
+
+    @Override
+    public Response execute(Request request) {
+        Timer.Sample sample = Timer.start(registry);
+        active.incrementAndGet();
+        Response response;
+        try {
+            response = delegate.execute(request);
+        } catch (RuntimeException e) {
+            active.decrementAndGet();
+            sample.stop(timer(request.method(), "IO_ERROR"));
+            throw e;
+        }
+        // until the headers arrived, a stream is not timed for as long as it stays open
+        sample.stop(timer(request.method(), String.valueOf(response.getStatusCode())));
+        return new InstrumentedResponse(response);
+    }
+
+    private Timer timer(String method, String status) {
+        return Timer.builder("docker.http.requests")
+                .tags(tags)
+                .tag("method", method)
+                .tag("status", status)
+                .description("Docker Engine API requests, until the response headers arrived")
+                .register(registry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    private class InstrumentedResponse implements Response {
+
+        private final Response delegate;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        InstrumentedResponse(Response delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return delegate.getHeader(name);
+        }
+
+        @Override
+        public InputStream getBody() {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void close() {
+            // responses can be closed more than once
+            if (closed.compareAndSet(false, true)) {
+                active.decrementAndGet();
+            }
+            delegate.close();
+        }
+    }
+}
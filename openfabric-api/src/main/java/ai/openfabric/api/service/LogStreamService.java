@@ -0,0 +1,286 @@
+package ai.openfabric.api.service;
+
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.command.LogContainerCmd;
+import com.github.dockerjava.api.model.Frame;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A service that streams container logs from Docker to HTTP clients
+ * <p>
+ * Frames are handed from docker-java's thread to the request thread through a queue of
+ * {@code node.logs.queue-size} frames. When a client reads slower than the container logs, the queue fills up,
+ * docker-java stops reading and the daemon waits, so a log of any size only takes the queue in memory.
+ * Every stream holds a connection of the long-running client, so their number is capped, and the followers
+ * of a single container are capped again.
+ * <p>
+ * A log that is read to its end goes out as plain text. A followed log goes out as Server-Sent Events, a frame per
+ * event, with a comment every {@code node.logs.heartbeat} while the container is quiet. The servlet container
+ * only notices a client that went away when it is written to, so without them an abandoned follower would hold
+ * its slots until the timeout.
+ */
+@Service
+public class LogStreamService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogStreamService.class);
+
+    public static final String CONTENT_TYPE_TEXT = "text/plain";
+    public static final String CONTENT_TYPE_EVENTS = "text/event-stream";
+
+    // marks the end of a stream in the queue
+    private static final byte[] END = new byte[0];
+
+    private static final byte[] DATA = "data: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    // milliseconds between checks of the stream timeout and of a closed stream
+    private static final long POLL_INTERVAL = 1000;
+
+    @Value("${node.logs.max-streams:50}")
+    private int maxStreams;
+
+    @Value("${node.logs.max-followers:4}")
+    private int maxFollowers;  // per container
+
+    @Value("${node.logs.queue-size:64}")
+    private int queueSize;  // frames per stream
+
+    @Value("${node.logs.timeout:1800000}")
+    private long timeout;  // milliseconds
+
+    @Value("${node.logs.heartbeat:10000}")
+    private long heartbeat;  // milliseconds of a quiet followed log before a heartbeat is sent
+
+    @Autowired
+    private DockerAPIService dockerAPIService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final AtomicInteger streamCount = new AtomicInteger();
+
+    // container id -> streams that follow its log
+    private final Map<String, Integer> followers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("docker.logs.streams", streamCount, AtomicInteger::get)
+                .description("Open log streams")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start streaming the log of a container
+     * @param host the host the container runs on
+     * @param id the container id
+     * @param follow whether to keep streaming what the container logs next
+     * @param tail how many lines from the end to start with, every line if null
+     * @param since unix time in seconds to start from, the beginning if null
+     * @return the stream, to copy to the client and close
+     * @throws IllegalStateException if there are too many streams, or followers of the container, already
+     */
+    public LogStream open(String host, String id, boolean follow, Integer tail, Integer since) {
+        if (streamCount.incrementAndGet() > maxStreams) {
+            streamCount.decrementAndGet();
+            throw new IllegalStateException("Too many log streams");
+        }
+        if (follow && !acquireFollower(id)) {
+            streamCount.decrementAndGet();
+            throw new IllegalStateException("Too many followers of the log of " + id);
+        }
+        LogStream stream = new LogStream(id, follow);
+        try (LogContainerCmd logContainerCmd = dockerAPIService.getLongRunningClient(host).logContainerCmd(id)) {
+            logContainerCmd.withStdOut(true).withStdErr(true).withFollowStream(follow).withSince(since);
+            if (tail == null) {
+                logContainerCmd.withTailAll();
+            } else {
+                logContainerCmd.withTail(tail);
+            }
+            logContainerCmd.exec(stream);
+        } catch (RuntimeException e) {
+            stream.release();
+            throw e;
+        }
+        return stream;
+    }
+
+    private boolean acquireFollower(String id) {
+        AtomicBoolean acquired = new AtomicBoolean();
+        followers.compute(id, (key, count) -> {
+            int current = count == null ? 0 : count;
+            if (current >= maxFollowers) {
+                return count;
+            }
+            acquired.set(true);
+            return current + 1;
+        });
+        return acquired.get();
+    }
+
+    /**
+     * The log of a single container as Docker sends it, stdout and stderr interleaved
+     */
+    public class LogStream extends ResultCallback.Adapter<Frame> {
+
+        private final String id;
+        private final boolean follow;
+        private final BlockingQueue<byte[]> frames = new ArrayBlockingQueue<>(queueSize);
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile Throwable error;
+
+        LogStream(String id, boolean follow) {
+            this.id = id;
+            this.follow = follow;
+        }
+
+        @Override
+        public void onNext(Frame frame) {
+            enqueue(frame.getPayload());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // closing the stream from our side fails the read as well
+            if (!released.get()) {
+                error = throwable;
+                enqueue(END);
+            }
+            super.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            enqueue(END);
+            super.onComplete();
+        }
+
+        /**
+         * @return the content type the log is copied as, events if it is followed and plain text otherwise
+         */
+        public String getContentType() {
+            return follow ? CONTENT_TYPE_EVENTS : CONTENT_TYPE_TEXT;
+        }
+
+        /**
+         * Copy the log to a client until it ends, the stream times out or the client goes away
+         * @param out the response body
+         * @throws IOException if the client cannot be written to, which a heartbeat finds out for a quiet log
+         * @throws RuntimeException the error of the Docker request if it failed before anything was copied
+         */
+        public void copyTo(OutputStream out) throws IOException {
+            long deadline = System.currentTimeMillis() + timeout;
+            long lastWrite = System.currentTimeMillis();
+            boolean copied = false;
+            try {
+                while (System.currentTimeMillis() < deadline) {
+                    byte[] payload = frames.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (payload == null) {
+                        if (follow && System.currentTimeMillis() - lastWrite >= heartbeat) {
+                            out.write(HEARTBEAT);
+                            out.flush();
+                            lastWrite = System.currentTimeMillis();
+                        }
+                        continue;
+                    }
+                    if (payload == END) {
+                        break;
+                    }
+                    if (follow) {
+                        writeEvent(out, payload);
+                        lastWrite = System.currentTimeMillis();
+                    } else {
+                        out.write(payload);
+                    }
+                    copied = true;
+                    // frames that are already waiting go out in the same chunk
+                    if (frames.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Throwable failure = error;
+            if (failure != null) {
+                if (!copied && failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                }
+                logger.warn("Log stream of {} failed", id, failure);
+            }
+            out.flush();
+        }
+
+        // every line of the frame as a data line, \n, \r\n and \r end lines in an event stream alike
+        private void writeEvent(OutputStream out, byte[] payload) throws IOException {
+            int start = 0;
+            for (int i = 0; i < payload.length; i++) {
+                byte b = payload[i];
+                if (b == '\n' || b == '\r') {
+                    writeData(out, payload, start, i);
+                    if (b == '\r' && i + 1 < payload.length && payload[i + 1] == '\n') {
+                        i++;
+                    }
+                    start = i + 1;
+                }
+            }
+            if (start < payload.length) {
+                writeData(out, payload, start, payload.length);
+            }
+            out.write('\n');
+        }
+
+        private void writeData(OutputStream out, byte[] payload, int from, int to) throws IOException {
+            out.write(DATA);
+            out.write(payload, from, to - from);
+            out.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            release();
+            super.close();
+        }
+
+        // give back the slots of the stream, and wake docker-java's thread if it waits on a full queue
+        private void release() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            streamCount.decrementAndGet();
+            if (follow) {
+                followers.computeIfPresent(id, (key, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+
+        // blocks while the queue is full, which stops docker-java from reading more of the log
+        private void enqueue(byte[] payload) {
+            try {
+                while (!released.get()) {
+                    if (frames.offer(payload, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package ai.openfabric.api.service;
+
+import com.github.dockerjava.transport.DockerHttpClient;
+import com.github.dockerjava.transport.UnixSocket;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.ManagedHttpClientConnectionFactory;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.socket.ConnectionSocketFactory;
+import org.apache.hc.client5.http.socket.PlainConnectionSocketFactory;
+import org.apache.hc.core5.http.ContentLengthStrategy;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.config.RegistryBuilder;
+import org.apache.hc.core5.http.impl.DefaultContentLengthStrategy;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.InputStreamEntity;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.net.URIAuthority;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.ToIntFunction;
+
+/**
+ * A Docker HTTP client over a connection pool this service sizes and measures itself
+ * <p>
+ * Connections are kept alive for reuse until they were idle for the keep-alive, and a {@code unix://} host is
+ * reached over its socket instead of TCP. The pool registers its leased, available, pending and max connections
+ * and how long requests waited for a connection.
+ * <p>
+ * Requests queue for a permit of their own before they lease a connection, one per connection of the pool. The
+ * pool waits for a free connection in {@code Object.wait}, which pins the carrier of a virtual thread. With more
+ * virtual threads waiting than the scheduler has carriers, the ones holding connections could not resume to give
+ * them back. A permit is waited for without pinning.
+ * <p>
+ * Hijacked requests, like attaching to a container, are not supported, this service makes none.
+ */
+class PooledDockerHttpClient implements DockerHttpClient {
+
+    // the daemon answers some streams with Transfer-Encoding: identity, their body lasts until the connection ends
+    private static final ContentLengthStrategy IDENTITY_AWARE_LENGTH = message -> {
+        Header transferEncoding = message.getFirstHeader("Transfer-Encoding");
+        if (transferEncoding != null && "identity".equalsIgnoreCase(transferEncoding.getValue())) {
+            return ContentLengthStrategy.UNDEFINED;
+        }
+        return DefaultContentLengthStrategy.INSTANCE.determineLength(message);
+    };
+
+    private static final InputStream EMPTY = new InputStream() {
+        @Override
+        public int read() {
+            return -1;
+        }
+    };
+
+    // as long as the pool itself waits for a connection, its default connection request timeout
+    private static final long PERMIT_TIMEOUT = TimeUnit.MINUTES.toMillis(3);
+
+    private final CloseableHttpClient httpClient;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    // a request holds one from before it leases its connection until its response is closed
+    private final Semaphore permits;
+    private final Timer waitTimer;
+    private final HttpHost host;
+    private final String pathPrefix;
+
+    /**
+     * @param dockerHost the Docker host url, tcp://, http:// or unix://
+     * @param maxTotal the most connections of the pool
+     * @param maxPerRoute the most connections to the Docker host
+     * @param keepAlive milliseconds an idle connection is kept for reuse
+     * @param connectionTimeout how long connecting may take
+     * @param responseTimeout how long to wait for data of a response, null for no timeout
+     * @param registry where to register the pool meters
+     * @param tags the tags of the pool meters
+     */
+    PooledDockerHttpClient(URI dockerHost, int maxTotal, int maxPerRoute, long keepAlive,
+                           Duration connectionTimeout, Duration responseTimeout,
+                           MeterRegistry registry, Tags tags) {
+        RegistryBuilder<ConnectionSocketFactory> sockets = RegistryBuilder.create();
+        switch (dockerHost.getScheme()) {
+            case "unix":
+                String socketPath = dockerHost.getPath();
+                sockets.register("unix", new PlainConnectionSocketFactory() {
+                    @Override
+                    public Socket createSocket(HttpContext context) throws IOException {
+                        return UnixSocket.get(socketPath);
+                    }
+                });
+                // the host only names the route, the socket is what is connected to
+                host = new HttpHost("unix", "localhost", 2375);
+                pathPrefix = "";
+                break;
+            case "tcp":
+            case "http":
+                sockets.register("http", PlainConnectionSocketFactory.getSocketFactory());
+                host = new HttpHost("http", dockerHost.getHost(), dockerHost.getPort());
+                pathPrefix = dockerHost.getRawPath() == null ? "" : dockerHost.getRawPath().replaceAll("/+$", "");
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported Docker host scheme: " + dockerHost);
+        }
+
+        waitTimer = Timer.builder("docker.http.pool.wait")
+                .tags(tags)
+                .description("Time requests waited for a pooled connection")
+                .register(registry);
+        // there is a single route, the Docker host
+        permits = new Semaphore(Math.min(maxTotal, maxPerRoute), true);
+        connectionManager = new PoolingHttpClientConnectionManager(sockets.build(),
+                new ManagedHttpClientConnectionFactory(null, null, null, null, IDENTITY_AWARE_LENGTH, null));
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        connectionManager.setValidateAfterInactivity(TimeValue.ofSeconds(2));
+        if (responseTimeout != null) {
+            connectionManager.setDefaultSocketConfig(SocketConfig.custom()
+                    .setSoTimeout(Timeout.ofMilliseconds(responseTimeout.toMillis()))
+                    .build());
+        }
+
+        RequestConfig.Builder requestConfig = RequestConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(connectionTimeout.toMillis()));
+        if (responseTimeout != null) {
+            requestConfig.setResponseTimeout(Timeout.ofMilliseconds(responseTimeout.toMillis()));
+        }
+
+        TimeValue keepAliveTime = TimeValue.ofMilliseconds(keepAlive);
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig.build())
+                .setKeepAliveStrategy((response, context) -> keepAliveTime)
+                .evictIdleConnections(keepAliveTime)
+                .disableCookieManagement()
+                .disableAuthCaching()
+                .disableRedirectHandling()
+                .build();
+
+        gauge(registry, tags, "docker.http.pool.leased", "Pooled connections held by requests and open streams",
+                PoolStats::getLeased);
+        gauge(registry, tags, "docker.http.pool.available", "Idle pooled connections kept alive for reuse",
+                PoolStats::getAvailable);
+        gauge(registry, tags, "docker.http.pool.pending", "Requests waiting for a pooled connection",
+                stats -> stats.getPending() + permits.getQueueLength());
+        gauge(registry, tags, "docker.http.pool.max", "Size of the connection pool",
+                PoolStats::getMax);
+    }
+
+    private void gauge(MeterRegistry registry, Tags tags, String name, String description,
+                       ToIntFunction<PoolStats> value) {
+        Gauge.builder(name, connectionManager, manager -> value.applyAsInt(manager.getTotalStats()))
+                .tags(tags)
+                .description(description)
+                .register(registry);
+    }
+
+    @Override
+    public Response execute(Request request) {
+        HttpUriRequestBase httpRequest = new HttpUriRequestBase(request.method(),
+                URI.create(pathPrefix + request.path()));
+        httpRequest.setScheme(host.getSchemeName());
+        httpRequest.setAuthority(new URIAuthority(host.getHostName(), host.getPort()));
+        request.headers().forEach(httpRequest::addHeader);
+
+        byte[] bodyBytes = request.bodyBytes();
+        if (bodyBytes != null) {
+            httpRequest.setEntity(new ByteArrayEntity(bodyBytes, null));
+        } else if (request.body() != null) {
+            httpRequest.setEntity(new InputStreamEntity(request.body(), null));
+        }
+        if (request.hijackedInput() != null) {
+            throw new UnsupportedOperationException("Hijacked requests are not supported: " + request.path());
+        }
+
+        acquirePermit(request);
+        try {
+            return new PooledResponse(httpRequest, httpClient.execute(host, httpRequest), permits);
+        } catch (IOException e) {
+            permits.release();
+            httpRequest.abort();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void acquirePermit(Request request) {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(PERMIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                throw new UncheckedIOException(new IOException("Timed out waiting for a connection: "
+                        + request.path()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for a connection: "
+                    + request.path()));
+        } finally {
+            waitTimer.record(Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    private static class PooledResponse implements Response {
+
+        private final HttpUriRequestBase request;
+        private final CloseableHttpResponse response;
+        private final Semaphore permits;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        PooledResponse(HttpUriRequestBase request, CloseableHttpResponse response, Semaphore permits) {
+            this.request = request;
+            this.response = response;
+            this.permits = permits;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.getCode();
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (Header header : response.getHeaders()) {
+                headers.computeIfAbsent(header.getName(), name -> new ArrayList<>()).add(header.getValue());
+            }
+            return Collections.unmodifiableMap(headers);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            Header header = response.getFirstHeader(name);
+            return header == null ? null : header.getValue();
+        }
+
+        @Override
+        public InputStream getBody() {
+            HttpEntity entity = response.getEntity();
+            try {
+                return entity == null ? EMPTY : entity.getContent();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            // a body read to its end already returned the connection to the pool, an unfinished one, like a
+            // stream that is still open, cannot be reused
+            request.abort();
+            try {
+                response.close();
+            } catch (IOException ignored) {
+                // the connection is discarded either way
+            } finally {
+                if (closed.compareAndSet(false, true)) {
+                    permits.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package ai.openfabric.api.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reports how long ago each host was last refreshed, shown as {@code refresh} in the health endpoint
+ * <p>
+ * A host lags when it was not refreshed for {@code node.health.max-lag}. The refresh is down when every
+ * host lags, a single unreachable host only shows up in the details.
+ */
+@Component
+public class RefreshHealthIndicator implements HealthIndicator {
+
+    @Value("${node.health.max-lag:" + 3 * BackgroundUpdateService.MAX_INTERVAL + "}")
+    private long maxLag;  // milliseconds
+
+    @Autowired
+    private BackgroundUpdateService backgroundUpdateService;
+
+    @Override
+    public Health health() {
+        Map<String, Object> hosts = new LinkedHashMap<>();
+        List<String> lagging = new ArrayList<>();
+        backgroundUpdateService.getLag().forEach((host, lag) -> {
+            Map<String, Object> details = new LinkedHashMap<>();
+            details.put("lag", lag);
+            details.put("leader", backgroundUpdateService.isLeader(host));
+            hosts.put(host, details);
+            if (lag > maxLag) {
+                lagging.add(host);
+            }
+        });
+        Health.Builder builder = !hosts.isEmpty() && lagging.size() == hosts.size() ? Health.down() : Health.up();
+        return builder.withDetail("maxLag", maxLag)
+                .withDetail("lagging", lagging)
+                .withDetail("hosts", hosts)
+                .build();
+    }
+}
@@ -0,0 +1,123 @@
+package ai.openfabric.api.service;
+
+import ai.openfabric.api.repository.RefreshLeaseRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides which replica refreshes what when several run against the same database
+ * <p>
+ * In {@code lease} mode each piece of background work, like the refresh of a Docker host, is guarded by a
+ * lease in the {@code refresh_lease} table. The holder renews it every time it does the work, the others
+ * only read. A lease that is not renewed expires after {@code node.coordination.lease-duration} and the
+ * next replica to ask takes it over. In {@code none} mode this replica does everything.
+ */
+@Service
+public class RefreshLeaseService {
+
+    public static final String MODE_NONE = "none";
+    public static final String MODE_LEASE = "lease";
+
+    public static final long LEASE_DURATION = 20000;  // 20 seconds
+
+    private static final Logger logger = LoggerFactory.getLogger(RefreshLeaseService.class);
+
+    @Value("${node.coordination.mode:" + MODE_NONE + "}")
+    private String mode;
+
+    @Value("${node.coordination.lease-duration:" + LEASE_DURATION + "}")
+    private long leaseDuration;  // milliseconds
+
+    @Autowired
+    private RefreshLeaseRepository refreshLeaseRepository;
+
+    private final Set<String> held = ConcurrentHashMap.newKeySet();
+
+    private String owner;
+
+    @PostConstruct
+    public void init() {
+        String machine;
+        try {
+            machine = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            machine = "unknown";
+        }
+        // unique per run, a restarted replica must not inherit the leases of its previous run
+        owner = machine + "/" + UUID.randomUUID();
+        if (isCoordinated()) {
+            logger.info("Coordinating refreshes through leases as {}", owner);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!isCoordinated() || held.isEmpty()) {
+            return;
+        }
+        try {
+            refreshLeaseRepository.releaseAll(owner);
+        } catch (RuntimeException e) {
+            logger.warn("Could not release leases, they expire in {} ms", leaseDuration, e);
+        }
+        held.clear();
+    }
+
+    /**
+     * @return milliseconds a lease is valid for after {@link #acquire(String)}
+     */
+    public long getLeaseDuration() {
+        return leaseDuration;
+    }
+
+    public boolean isCoordinated() {
+        return MODE_LEASE.equalsIgnoreCase(mode);
+    }
+
+    /**
+     * Acquire or renew a lease for {@code node.coordination.lease-duration}, to be called every time before
+     * the work it guards
+     * @param name the lease
+     * @return true if this replica should do the work
+     */
+    public boolean acquire(String name) {
+        return acquire(name, leaseDuration);
+    }
+
+    /**
+     * Acquire or renew a lease, to be called every time before the work it guards
+     * @param name the lease
+     * @param duration milliseconds the lease is valid for, longer than the time between two calls
+     * @return true if this replica should do the work
+     */
+    public boolean acquire(String name, long duration) {
+        if (!isCoordinated()) {
+            return true;
+        }
+        boolean acquired;
+        try {
+            acquired = refreshLeaseRepository.tryAcquire(name, owner, duration);
+        } catch (RuntimeException e) {
+            // without the database nobody can tell we still hold it, step back
+            logger.warn("Could not renew lease {}", name, e);
+            acquired = false;
+        }
+        if (acquired && held.add(name)) {
+            logger.info("Acquired lease {}", name);
+        } else if (!acquired && held.remove(name)) {
+            logger.info("Lost lease {}", name);
+        }
+        return acquired;
+    }
+}
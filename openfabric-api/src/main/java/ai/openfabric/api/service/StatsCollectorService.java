@@ -0,0 +1,555 @@
+package ai.openfabric.api.service;
+
+import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.model.WorkerStatistics;
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.command.StatsCmd;
+import com.github.dockerjava.api.model.CpuStatsConfig;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.Statistics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * A service that collects worker statistics for the refresh cycle
+ * <p>
+ * In {@code stream} mode it keeps one streaming stats request open per running container and remembers
+ * the latest sample of each, so a refresh cycle only has to read them. In {@code poll} mode every cycle
+ * requests one sample per worker on a bounded pool, each with its own deadline. With virtual threads, see
+ * {@link ThreadModeService}, the pool threads make the requests themselves instead of waiting on a thread
+ * docker-java starts per request.
+ * <p>
+ * Polled workers each have their own cadence: running ones whose statistics move are polled every update
+ * interval, idle ones every idle interval and stopped ones every stopped interval. A worker that changed
+ * state is polled on the next cycle. Workers that are not due keep their previous statistics.
+ * <p>
+ * Streams, their limit and the poll pools are kept per host, so a slow host only delays its own workers.
+ * <p>
+ * Network and block io rates are computed from the counters of consecutive samples of a container, see
+ * {@link StatsRates}.
+ */
+@Service
+public class StatsCollectorService implements ContainerEventListener {
+
+    public static final String MODE_POLL = "poll";
+    public static final String MODE_STREAM = "stream";
+
+    // cadences of containers not seen for this long are dropped
+    public static final long CADENCE_EXPIRY = 600000;  // 10 minutes
+
+    private static final Logger logger = LoggerFactory.getLogger(StatsCollectorService.class);
+
+    @Value("${node.stats.mode:" + MODE_POLL + "}")
+    private String statsMode;
+
+    @Value("${node.stats.max-streams:1000}")
+    private int maxStreams;
+
+    @Value("${node.stats.poll-threads:16}")
+    private int pollThreads;
+
+    @Value("${node.stats.poll-timeout:5000}")
+    private long pollTimeout;  // milliseconds
+
+    @Value("${node.update.interval:" + BackgroundUpdateService.UPDATE_INTERVAL + "}")
+    private long activeInterval;
+
+    @Value("${node.update.idle-interval:10000}")
+    private long idleInterval;
+
+    @Value("${node.update.stopped-interval:60000}")
+    private long stoppedInterval;
+
+    // cpu usage in percent below which a running container counts as idle, if its io did not move either
+    @Value("${node.update.idle-cpu:1.0}")
+    private double idleCpu;
+
+    @Autowired
+    private DockerAPIService dockerAPIService;
+
+    @Autowired
+    private DockerEventService dockerEventService;
+
+    @Autowired
+    private ThreadModeService threadModeService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // host -> container id -> open stream
+    private final Map<String, Map<String, StatsStream>> streams = new ConcurrentHashMap<>();
+    private final Map<String, WorkerStatistics> latest = new ConcurrentHashMap<>();
+
+    private final List<StatsSampleListener> listeners = new CopyOnWriteArrayList<>();
+
+    // host -> pool of node.stats.poll-threads, a thread per poll in virtual mode
+    private final Map<String, ExecutorService> pollExecutors = new ConcurrentHashMap<>();
+
+    // container id -> when it is polled next
+    private final Map<String, Cadence> cadences = new ConcurrentHashMap<>();
+
+    private final StatsRates rates = new StatsRates();
+
+    @PostConstruct
+    public void init() {
+        for (String host : dockerAPIService.getHosts()) {
+            Map<String, StatsStream> open = new ConcurrentHashMap<>();
+            streams.put(host, open);
+            Gauge.builder("docker.stats.streams", open, Map::size)
+                    .tag("host", host)
+                    .description("Open stats streams")
+                    .register(meterRegistry);
+            if (!isStreaming()) {
+                pollExecutors.put(host, threadModeService.pool("stats-poll-" + host, pollThreads));
+            }
+        }
+        if (isStreaming()) {
+            dockerEventService.addListener(this);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        streams.forEach((host, open) -> open.keySet().forEach(id -> detach(host, id)));
+        pollExecutors.values().forEach(ExecutorService::shutdownNow);
+    }
+
+    public void addListener(StatsSampleListener listener) {
+        listeners.add(listener);
+    }
+
+    public boolean isStreaming() {
+        return MODE_STREAM.equalsIgnoreCase(statsMode);
+    }
+
+    @Override
+    public void onContainerEvent(String host, Event event) {
+        if ("start".equals(event.getAction())) {
+            attach(host, event.getId());
+        } else if ("die".equals(event.getAction()) || "destroy".equals(event.getAction())) {
+            detach(host, event.getId());
+        }
+    }
+
+    /**
+     * Open a stats stream for a container unless one is already open
+     * @param host the host the container runs on
+     * @param id the container id
+     */
+    public void attach(String host, String id) {
+        Map<String, StatsStream> open = streams.get(host);
+        if (id == null || open == null || open.containsKey(id)) {
+            return;
+        }
+        if (open.size() >= maxStreams) {
+            logger.warn("Not streaming stats for {}, node.stats.max-streams ({}) reached on {}", id, maxStreams, host);
+            return;
+        }
+        StatsStream stream = new StatsStream(host, id);
+        if (open.putIfAbsent(id, stream) != null) {
+            return;
+        }
+        try {
+            dockerAPIService.getStreamingClient(host).statsCmd(id).withNoStream(false).exec(stream);
+        } catch (RuntimeException e) {
+            open.remove(id, stream);
+            logger.warn("Could not open stats stream for {} on {}", id, host, e);
+        }
+    }
+
+    /**
+     * Close the stats stream of a container and forget its latest sample
+     * @param host the host the container runs on
+     * @param id the container id
+     */
+    public void detach(String host, String id) {
+        Map<String, StatsStream> open = streams.get(host);
+        StatsStream stream = open == null ? null : open.remove(id);
+        latest.remove(id);
+        rates.forget(id);
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                logger.debug("Could not close stats stream for {}", id, e);
+            }
+        }
+    }
+
+    /**
+     * Make the open streams of a host match the given set of running containers
+     * @param host the host
+     * @param runningIds ids of every running container on the host
+     */
+    public void sync(String host, Collection<String> runningIds) {
+        Map<String, StatsStream> open = streams.get(host);
+        if (open == null) {
+            return;
+        }
+        Set<String> running = new HashSet<>(runningIds);
+        for (String id : open.keySet()) {
+            if (!running.contains(id)) {
+                detach(host, id);
+            }
+        }
+        running.forEach(id -> attach(host, id));
+    }
+
+    /**
+     * Attach the current statistics to the workers of a host, marking the ones that could not be collected as stale
+     * @param host the host the workers run on
+     * @param workers the workers to refresh statistics for
+     * @return how many workers were collected, skipped and failed
+     */
+    public Report refresh(String host, List<Worker> workers) throws InterruptedException {
+        Report report = isStreaming() ? refreshFromStreams(host, workers) : poll(host, workers);
+        count(host, "collected", report.collected);
+        count(host, "skipped", report.skipped);
+        count(host, "failed", report.failed);
+        count(host, "deferred", report.deferred);
+        return report;
+    }
+
+    private void count(String host, String result, int amount) {
+        Counter.builder("worker.stats.refresh")
+                .tags("host", host, "result", result)
+                .description("Workers per outcome of their statistics refresh")
+                .register(meterRegistry)
+                .increment(amount);
+    }
+
+    private Report refreshFromStreams(String host, List<Worker> workers) {
+        List<Worker> running = workers.stream()
+                .filter(worker -> "running".equals(worker.getState()))
+                .collect(Collectors.toList());
+        // reopens streams that dropped and closes the ones of stopped containers
+        sync(host, running.stream().map(Worker::getId).collect(Collectors.toList()));
+
+        Report report = new Report();
+        for (Worker worker : running) {
+            if (applyLatest(worker)) {
+                report.collected++;
+            } else {
+                markStale(worker);
+                report.skipped++;
+            }
+        }
+        return report;
+    }
+
+    private Report poll(String host, List<Worker> workers) throws InterruptedException {
+        long now = System.currentTimeMillis();
+        List<Worker> due = new ArrayList<>(workers.size());
+        for (Worker worker : workers) {
+            Cadence cadence = cadences.get(worker.getId());
+            if (cadence == null || !Objects.equals(cadence.state, worker.getState()) || now >= cadence.nextPoll) {
+                due.add(worker);
+            }
+        }
+        Report report = new Report();
+        report.deferred = workers.size() - due.size();
+
+        ExecutorService pollExecutor = pollExecutors.get(host);
+        List<Future<Outcome>> futures = new ArrayList<>(due.size());
+        for (Worker worker : due) {
+            futures.add(pollExecutor.submit(() -> pollOne(host, worker)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            Worker worker = due.get(i);
+            Outcome outcome;
+            try {
+                outcome = futures.get(i).get();
+            } catch (ExecutionException e) {
+                logger.debug("Could not collect stats for {}", worker.getId(), e.getCause());
+                outcome = Outcome.FAILED;
+            }
+            switch (outcome) {
+                case COLLECTED:
+                    schedule(worker, now);
+                    report.collected++;
+                    break;
+                case SKIPPED:
+                    // due again on the next cycle, the host backs off as a whole if the daemon is slow
+                    cadences.remove(worker.getId());
+                    markStale(worker);
+                    report.skipped++;
+                    break;
+                default:
+                    cadences.remove(worker.getId());
+                    markStale(worker);
+                    report.failed++;
+            }
+        }
+        cadences.values().removeIf(cadence -> now - cadence.nextPoll > CADENCE_EXPIRY);
+        rates.expire(System.nanoTime(), CADENCE_EXPIRY);
+        return report;
+    }
+
+    // picks the next poll of a worker from its state and how its statistics moved since the last poll
+    private void schedule(Worker worker, long now) {
+        WorkerStatistics workerStatistics = worker.getWorkerStatistics();
+        Cadence last = cadences.get(worker.getId());
+        long interval;
+        if (!"running".equals(worker.getState())) {
+            interval = stoppedInterval;
+        } else if (last != null && "running".equals(last.state) && last.isIdle(workerStatistics, idleCpu)) {
+            interval = idleInterval;
+        } else {
+            interval = activeInterval;
+        }
+        cadences.put(worker.getId(), new Cadence(worker.getState(), now + interval, workerStatistics));
+    }
+
+    private Outcome pollOne(String host, Worker worker) throws InterruptedException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        Outcome outcome = Outcome.FAILED;
+        try {
+            outcome = fetch(host, worker);
+            return outcome;
+        } finally {
+            sample.stop(Timer.builder("docker.stats.fetch")
+                    .tags("host", host, "outcome", outcome.name().toLowerCase())
+                    .description("Requests for a single stats sample, skipped ones timed out")
+                    .register(meterRegistry));
+        }
+    }
+
+    private Outcome fetch(String host, Worker worker) throws InterruptedException {
+        if (threadModeService.isVirtual()) {
+            return fetchOnThread(host, worker);
+        }
+        SampleCallback callback = new SampleCallback();
+        try (StatsCmd statsCmd = dockerAPIService.getClient(host).statsCmd(worker.getId())) {
+            statsCmd.withNoStream(true).exec(callback);
+            if (!callback.awaitCompletion(pollTimeout, TimeUnit.MILLISECONDS)) {
+                return Outcome.SKIPPED;
+            }
+        } finally {
+            try {
+                callback.close();
+            } catch (IOException e) {
+                logger.debug("Could not close stats request for {}", worker.getId(), e);
+            }
+        }
+        if (callback.sample == null) {
+            return Outcome.FAILED;
+        }
+        return collected(worker, callback.sample);
+    }
+
+    // blocks the polling thread for the whole request, which is cheap when it is a virtual thread, the response
+    // timeout of the Docker client bounds it instead of node.stats.poll-timeout
+    private Outcome fetchOnThread(String host, Worker worker) {
+        Statistics statistics;
+        try {
+            statistics = dockerAPIService.getEndpoint(host).stats(worker.getId());
+        } catch (SocketTimeoutException e) {
+            return Outcome.SKIPPED;
+        } catch (IOException e) {
+            logger.debug("Could not collect stats for {}", worker.getId(), e);
+            return Outcome.FAILED;
+        }
+        if (statistics == null) {
+            return Outcome.FAILED;
+        }
+        return collected(worker, statistics);
+    }
+
+    private Outcome collected(Worker worker, Statistics statistics) {
+        WorkerStatistics workerStatistics = statisticsOf(worker);
+        DockerAPIService.extractStats(statistics, workerStatistics);
+        rates.apply(worker.getId(), statistics, workerStatistics);
+        workerStatistics.setStale(false);
+        notifyListeners(worker.getId(), workerStatistics);
+        return Outcome.COLLECTED;
+    }
+
+    private static WorkerStatistics statisticsOf(Worker worker) {
+        WorkerStatistics workerStatistics = worker.getWorkerStatistics();
+        if (workerStatistics == null) {
+            workerStatistics = new WorkerStatistics();
+            workerStatistics.setWorker(worker);
+            worker.setWorkerStatistics(workerStatistics);
+        }
+        return workerStatistics;
+    }
+
+    private static void markStale(Worker worker) {
+        statisticsOf(worker).setStale(true);
+    }
+
+    /**
+     * Copy the latest sample of a worker into its statistics
+     * @param worker the worker to update
+     * @return false if no sample has arrived for it yet
+     */
+    public boolean applyLatest(Worker worker) {
+        WorkerStatistics sample = latest.get(worker.getId());
+        if (sample == null) {
+            return false;
+        }
+        WorkerStatistics workerStatistics = statisticsOf(worker);
+        workerStatistics.setCpuUsage(sample.getCpuUsage());
+        workerStatistics.setMemoryUsage(sample.getMemoryUsage());
+        workerStatistics.setNetworkIn(sample.getNetworkIn());
+        workerStatistics.setNetworkOut(sample.getNetworkOut());
+        workerStatistics.setBlockIn(sample.getBlockIn());
+        workerStatistics.setBlockOut(sample.getBlockOut());
+        workerStatistics.setNetworkInRate(sample.getNetworkInRate());
+        workerStatistics.setNetworkOutRate(sample.getNetworkOutRate());
+        workerStatistics.setBlockInRate(sample.getBlockInRate());
+        workerStatistics.setBlockOutRate(sample.getBlockOutRate());
+        workerStatistics.setPidCount(sample.getPidCount());
+        workerStatistics.setStale(false);
+        return true;
+    }
+
+    public WorkerStatistics getLatest(String id) {
+        return latest.get(id);
+    }
+
+    /**
+     * Hand a sample to the listeners, also used for samples another replica collected and wrote
+     * @param id the worker id
+     * @param sample the sample
+     */
+    public void notifyListeners(String id, WorkerStatistics sample) {
+        for (StatsSampleListener listener : listeners) {
+            try {
+                listener.onSample(id, sample);
+            } catch (RuntimeException e) {
+                logger.warn("Stats sample listener failed for {}", id, e);
+            }
+        }
+    }
+
+    private enum Outcome {
+        COLLECTED, SKIPPED, FAILED
+    }
+
+    /**
+     * How a refresh went: collected workers got a new sample, skipped ones missed their deadline
+     * and failed ones got an error, both of the latter are marked stale. Deferred ones were not due.
+     */
+    @Getter
+    public static class Report {
+        private int collected;
+        private int skipped;
+        private int failed;
+        private int deferred;
+
+        @Override
+        public String toString() {
+            return "collected=" + collected + ", skipped=" + skipped + ", failed=" + failed + ", deferred=" + deferred;
+        }
+    }
+
+    private static class Cadence {
+        private final String state;
+        private final long nextPoll;
+
+        // what the last sample read, the io counters only grow while the container does something
+        private final long networkIn;
+        private final long networkOut;
+        private final long blockIn;
+        private final long blockOut;
+
+        Cadence(String state, long nextPoll, WorkerStatistics sample) {
+            this.state = state;
+            this.nextPoll = nextPoll;
+            networkIn = sample.getNetworkIn();
+            networkOut = sample.getNetworkOut();
+            blockIn = sample.getBlockIn();
+            blockOut = sample.getBlockOut();
+        }
+
+        boolean isIdle(WorkerStatistics sample, double idleCpu) {
+            return sample.getCpuUsage() < idleCpu
+                    && networkIn == sample.getNetworkIn() && networkOut == sample.getNetworkOut()
+                    && blockIn == sample.getBlockIn() && blockOut == sample.getBlockOut();
+        }
+    }
+
+    private static class SampleCallback extends ResultCallback.Adapter<Statistics> {
+
+        private volatile Statistics sample;
+
+        @Override
+        public void onNext(Statistics statistics) {
+            sample = statistics;
+        }
+    }
+
+    private class StatsStream extends ResultCallback.Adapter<Statistics> {
+
+        private final String host;
+        private final String id;
+
+        StatsStream(String host, String id) {
+            this.host = host;
+            this.id = id;
+        }
+
+        @Override
+        public void onNext(Statistics statistics) {
+            // the first streamed sample has no previous cpu reading to compute a percentage from
+            CpuStatsConfig preCpuStats = statistics.getPreCpuStats();
+            if (preCpuStats == null || preCpuStats.getSystemCpuUsage() == null) {
+                return;
+            }
+            WorkerStatistics sample = new WorkerStatistics();
+            DockerAPIService.extractStats(statistics, sample);
+            if (streams.get(host).get(id) == this) {
+                rates.apply(id, statistics, sample);
+                latest.put(id, sample);
+                notifyListeners(id, sample);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            logger.debug("Stats stream for {} on {} failed", id, host, throwable);
+            meterRegistry.counter("docker.stats.stream.errors", "host", host).increment();
+            if (streams.get(host).remove(id, this)) {
+                latest.remove(id);
+            }
+            super.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            // the daemon ends the stream when the container stops
+            if (streams.get(host).remove(id, this)) {
+                latest.remove(id);
+            }
+            super.onComplete();
+        }
+    }
+}
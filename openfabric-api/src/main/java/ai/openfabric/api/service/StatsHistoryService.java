@@ -0,0 +1,183 @@
+package ai.openfabric.api.service;
+
+import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.model.WorkerStatisticsPoint;
+import ai.openfabric.api.repository.StatsHistoryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * A service that records the statistics history of the workers and keeps it compact
+ * <p>
+ * Refresh cycles append raw samples at most every sample interval. A background job rolls them up
+ * into 1 minute and 1 hour buckets, creates the upcoming daily partitions and prunes what is past retention.
+ * With several replicas the job runs on whichever holds the {@value #LEASE} lease.
+ */
+@Service
+public class StatsHistoryService {
+
+    public static final int MAINTENANCE_INTERVAL = 60000;  // 1 minute
+
+    public static final String LEASE = "history";
+
+    // the most points a history query may return
+    public static final int MAX_POINTS = 10000;
+
+    private static final Logger logger = LoggerFactory.getLogger(StatsHistoryService.class);
+
+    @Value("${node.history.enabled:true}")
+    private boolean enabled;
+
+    @Value("${node.history.sample-interval:10000}")
+    private long sampleInterval;  // milliseconds
+
+    @Value("${node.history.raw-retention:1d}")
+    private Duration rawRetention;
+
+    @Value("${node.history.minute-retention:7d}")
+    private Duration minuteRetention;
+
+    @Value("${node.history.hour-retention:90d}")
+    private Duration hourRetention;
+
+    @Autowired
+    private StatsHistoryRepository statsHistoryRepository;
+
+    @Autowired
+    private RefreshLeaseService refreshLeaseService;
+
+    private ScheduledExecutorService executorService;
+
+    // host -> time of its last raw sample, every host refreshes on its own schedule
+    private final Map<String, Long> lastSample = new ConcurrentHashMap<>();
+    // start of the oldest minute that may still get raw samples and has to be rolled up again
+    private LocalDateTime rolledUpTo;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        // before the first refresh cycle, rows in the default partition would block creating today's
+        createPartitions();
+        rolledUpTo = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES).minusMinutes(10);
+        executorService = Executors.newSingleThreadScheduledExecutor();
+        executorService.scheduleWithFixedDelay(this::maintain, MAINTENANCE_INTERVAL, MAINTENANCE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executorService != null) {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Append the fresh statistics of the workers, unless the last sample of their host is more recent than
+     * the sample interval
+     * @param host the host the workers run on
+     * @param workers the workers of a refresh cycle
+     */
+    public void record(String host, Collection<Worker> workers) {
+        long now = System.currentTimeMillis();
+        if (!enabled || now - lastSample.getOrDefault(host, 0L) < sampleInterval) {
+            return;
+        }
+        lastSample.put(host, now);
+        List<Worker> sampled = workers.stream()
+                .filter(worker -> worker.getWorkerStatistics() != null && !worker.getWorkerStatistics().isStale())
+                .collect(Collectors.toList());
+        statsHistoryRepository.append(sampled, new Date(now));
+    }
+
+    /**
+     * Get the history of a worker with one point per step, read from the coarsest rollup that fits the step
+     * @param id the worker id
+     * @param from the start of the range
+     * @param to the end of the range, exclusive
+     * @param step the step in seconds
+     * @return the points in time order
+     */
+    public List<WorkerStatisticsPoint> history(String id, Date from, Date to, long step) {
+        if (!to.after(from) || step <= 0) {
+            throw new IllegalArgumentException("Expected from < to and a positive step");
+        }
+        if ((to.getTime() - from.getTime()) / 1000 / step > MAX_POINTS) {
+            throw new IllegalArgumentException("Step too small, at most " + MAX_POINTS + " points can be returned");
+        }
+        int resolution = 0;
+        if (step >= StatsHistoryRepository.HOUR) {
+            resolution = StatsHistoryRepository.HOUR;
+        } else if (step >= StatsHistoryRepository.MINUTE) {
+            resolution = StatsHistoryRepository.MINUTE;
+        }
+        return statsHistoryRepository.query(id, from, to, step, resolution);
+    }
+
+    private void createPartitions() {
+        try {
+            LocalDate today = LocalDate.now();
+            statsHistoryRepository.createPartition(today);
+            statsHistoryRepository.createPartition(today.plusDays(1));
+        } catch (RuntimeException e) {
+            logger.error("Could not create statistics history partitions", e);
+        }
+    }
+
+    private void maintain() {
+        try {
+            // held across runs, so it outlives the interval between them
+            if (!refreshLeaseService.acquire(LEASE, 2 * MAINTENANCE_INTERVAL)) {
+                // another replica maintains the shared tables
+                return;
+            }
+            createPartitions();
+
+            // the current minute and hour are rolled up as they fill, later runs replace them;
+            // samples are stored in local time, so buckets are aligned on local time too
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime hourStart = rolledUpTo.truncatedTo(ChronoUnit.HOURS);
+            statsHistoryRepository.rollup(StatsHistoryRepository.MINUTE, toDate(rolledUpTo), toDate(now));
+            statsHistoryRepository.rollup(StatsHistoryRepository.HOUR, toDate(hourStart), toDate(now));
+            rolledUpTo = now.truncatedTo(ChronoUnit.MINUTES).minusMinutes(1);
+
+            long nowMillis = System.currentTimeMillis();
+            int dropped = statsHistoryRepository.dropPartitionsBefore(LocalDate.now().minusDays(rawRetention.toDays()));
+            if (dropped > 0) {
+                logger.info("Dropped {} statistics history partitions", dropped);
+            }
+            statsHistoryRepository.deleteRawBefore(new Date(nowMillis - rawRetention.toMillis()));
+            statsHistoryRepository.deleteRollupsBefore(StatsHistoryRepository.MINUTE,
+                    new Date(nowMillis - minuteRetention.toMillis()));
+            statsHistoryRepository.deleteRollupsBefore(StatsHistoryRepository.HOUR,
+                    new Date(nowMillis - hourRetention.toMillis()));
+        } catch (RuntimeException e) {
+            // keep the schedule alive, the next run covers the same range again
+            logger.error("Statistics history maintenance failed", e);
+        }
+    }
+
+    private static Date toDate(LocalDateTime time) {
+        return Timestamp.valueOf(time);
+    }
+}
@@ -0,0 +1,199 @@
+package ai.openfabric.api.service;
+
+import ai.openfabric.api.model.WorkerStatistics;
+import com.github.dockerjava.api.model.BlkioStatsConfig;
+import com.github.dockerjava.api.model.Statistics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns the network and block io counters of consecutive samples of a container into bytes per second
+ * <p>
+ * Samples are timed by when the daemon read them, so a sample that waited in a queue or on a slow daemon does
+ * not skew the rate. A counter that went backwards was reset, like when the container restarted, and its new
+ * value is what was transferred since. The first sample of a container has rates of 0.
+ * <p>
+ * A sample without its networks or block io section, which the daemon leaves out now and then, is no sample
+ * of them: the counters keep their previous values with rates of 0, and the next sample that has the section
+ * is compared with the last one that had it.
+ */
+class StatsRates {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // container id -> counters of its previous sample
+    private final Map<String, Counters> previous = new ConcurrentHashMap<>();
+
+    /**
+     * Set the rates of a sample from the previous sample of its container, and remember it for the next one
+     * @param id the container id
+     * @param statistics the sample as Docker sent it
+     * @param sample the sample with its counters extracted, counters of missing sections are set back
+     */
+    void apply(String id, Statistics statistics, WorkerStatistics sample) {
+        long read = readTime(statistics.getRead());
+        if (read == Long.MIN_VALUE) {
+            // not read by the daemon, a stopped container, or a daemon that did not say
+            read = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        }
+        Counters counters = previous.get(id);
+        if (counters == null) {
+            counters = new Counters();
+            Counters raced = previous.putIfAbsent(id, counters);
+            if (raced != null) {
+                counters = raced;
+            }
+        }
+        synchronized (counters) {
+            counters.seen = System.nanoTime();
+            Section network = counters.network;
+            network.apply(statistics.getNetworks() != null, read, sample.getNetworkIn(), sample.getNetworkOut());
+            sample.setNetworkIn(network.in);
+            sample.setNetworkOut(network.out);
+            sample.setNetworkInRate(network.inRate);
+            sample.setNetworkOutRate(network.outRate);
+            BlkioStatsConfig blkioStats = statistics.getBlkioStats();
+            Section block = counters.block;
+            block.apply(blkioStats != null && blkioStats.getIoServiceBytesRecursive() != null, read,
+                    sample.getBlockIn(), sample.getBlockOut());
+            sample.setBlockIn(block.in);
+            sample.setBlockOut(block.out);
+            sample.setBlockInRate(block.inRate);
+            sample.setBlockOutRate(block.outRate);
+        }
+    }
+
+    /**
+     * Forget the previous sample of a container, its next sample has no rates
+     * @param id the container id
+     */
+    void forget(String id) {
+        previous.remove(id);
+    }
+
+    /**
+     * Forget the containers whose last sample is older than the given age
+     * @param now {@link System#nanoTime()}
+     * @param maxAge milliseconds
+     */
+    void expire(long now, long maxAge) {
+        long maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAge);
+        previous.values().removeIf(counters -> now - counters.seen > maxAgeNanos);
+    }
+
+    /**
+     * Parses the read time of a sample without allocating, Docker sends it like
+     * {@code 2023-01-10T10:11:12.123456789Z}
+     * @param read the RFC 3339 time
+     * @return nanoseconds since the epoch, {@link Long#MIN_VALUE} if missing, malformed or before the epoch
+     */
+    static long readTime(String read) {
+        if (read == null || read.length() < 20 || read.charAt(4) != '-' || read.charAt(7) != '-'
+                || read.charAt(10) != 'T' || read.charAt(13) != ':' || read.charAt(16) != ':') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(read, 0, 4);
+        int month = digits(read, 5, 2);
+        int day = digits(read, 8, 2);
+        int hour = digits(read, 11, 2);
+        int minute = digits(read, 14, 2);
+        int second = digits(read, 17, 2);
+        // before the epoch is the zero time of Go, what a stopped container reports
+        if (year < 1970 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return Long.MIN_VALUE;
+        }
+        int i = 19;
+        long nanos = 0;
+        if (read.charAt(i) == '.') {
+            long scale = NANOS_PER_SECOND;
+            for (i++; i < read.length() && read.charAt(i) >= '0' && read.charAt(i) <= '9'; i++) {
+                scale /= 10;
+                nanos += (read.charAt(i) - '0') * scale;
+            }
+        }
+        long offset;
+        if (i == read.length() - 1 && (read.charAt(i) == 'Z' || read.charAt(i) == 'z')) {
+            offset = 0;
+        } else if (i == read.length() - 6 && (read.charAt(i) == '+' || read.charAt(i) == '-')
+                && read.charAt(i + 3) == ':') {
+            int hours = digits(read, i + 1, 2);
+            int minutes = digits(read, i + 4, 2);
+            if (hours < 0 || minutes < 0) {
+                return Long.MIN_VALUE;
+            }
+            offset = (read.charAt(i) == '+' ? 1 : -1) * (hours * 3600L + minutes * 60L);
+        } else {
+            return Long.MIN_VALUE;
+        }
+        long seconds = epochDay(year, month, day) * 86400 + hour * 3600L + minute * 60L + second - offset;
+        return seconds * NANOS_PER_SECOND + nanos;
+    }
+
+    // the value of a run of decimal digits, -1 if any of them is not one
+    private static int digits(String s, int from, int length) {
+        int value = 0;
+        for (int i = from; i < from + length; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    // days since 1970-01-01 of a date in the proleptic Gregorian calendar, as LocalDate.toEpochDay() computes them
+    private static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = y / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static float rate(long before, long after, double seconds) {
+        long delta = after >= before ? after - before : after;
+        return (float) (delta / seconds);
+    }
+
+    private static class Counters {
+        // System.nanoTime() of the last sample, for expiry
+        private long seen;
+        private final Section network = new Section();
+        private final Section block = new Section();
+    }
+
+    // the in and out counters of one section of the samples, with the read time of the last sample that had it
+    private static class Section {
+        private boolean sampled;
+        private long time;
+        private long in;
+        private long out;
+        private float inRate;
+        private float outRate;
+
+        void apply(boolean present, long time, long in, long out) {
+            if (!present) {
+                inRate = 0;
+                outRate = 0;
+                return;
+            }
+            double seconds = (time - this.time) / (double) NANOS_PER_SECOND;
+            if (!sampled || seconds <= 0) {
+                inRate = 0;
+                outRate = 0;
+            } else {
+                inRate = rate(this.in, in, seconds);
+                outRate = rate(this.out, out, seconds);
+            }
+            sampled = true;
+            this.time = time;
+            this.in = in;
+            this.out = out;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package ai.openfabric.api.service;
+
+import ai.openfabric.api.model.WorkerStatistics;
+import lombok.Getter;
+
+/**
+ * The values of a single stats sample as primitives, meant to be reused for every sample a thread extracts
+ * <p>
+ * Filled by {@link DockerAPIService#extractStats(com.github.dockerjava.api.model.Statistics, StatsSample)}.
+ */
+@Getter
+public final class StatsSample {
+
+    float cpuUsage;
+    long memoryUsage;
+    long pidCount;
+    long networkIn;
+    long networkOut;
+    long blockIn;
+    long blockOut;
+
+    /**
+     * Set every value to 0
+     */
+    void clear() {
+        cpuUsage = 0;
+        memoryUsage = 0;
+        pidCount = 0;
+        networkIn = 0;
+        networkOut = 0;
+        blockIn = 0;
+        blockOut = 0;
+    }
+
+    /**
+     * Copy the values into the statistics of a worker
+     * @param workerStatistics the statistics to overwrite
+     */
+    public void copyTo(WorkerStatistics workerStatistics) {
+        workerStatistics.setMemoryUsage(memoryUsage);
+        workerStatistics.setCpuUsage(cpuUsage);
+        workerStatistics.setPidCount(pidCount);
+        workerStatistics.setNetworkIn(networkIn);
+        workerStatistics.setNetworkOut(networkOut);
+        workerStatistics.setBlockIn(blockIn);
+        workerStatistics.setBlockOut(blockOut);
+    }
+}
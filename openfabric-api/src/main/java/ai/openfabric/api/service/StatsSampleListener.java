@@ -0,0 +1,16 @@
+package ai.openfabric.api.service;
+
+import ai.openfabric.api.model.WorkerStatistics;
+
+/**
+ * Receives every statistics sample collected by the {@link StatsCollectorService}
+ */
+public interface StatsSampleListener {
+
+    /**
+     * Called on the collecting thread as soon as a sample arrives, the sample must not be modified
+     * @param id the container id
+     * @param sample the sample
+     */
+    void onSample(String id, WorkerStatistics sample);
+}
@@ -0,0 +1,236 @@
+package ai.openfabric.api.service;
+
+import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.model.WorkerStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A service that pushes statistics samples to Server-Sent Events subscribers as the collector gets them
+ * <p>
+ * Samples are conflated per subscriber: only the latest one of each worker is kept until the next push,
+ * and a subscriber gets at most {@code node.stream.max-rate} pushes a second, so a slow client never
+ * makes anything queue up.
+ * <p>
+ * The scheduler threads only hand pushes off, a push is written on one of {@code node.stream.send-threads}
+ * sender threads and a subscriber has one push in flight at most. One whose push has been written for longer
+ * than {@code node.stream.max-lag} is dropped, so a stalled client never delays the other subscribers. Its write
+ * fails once the client has not read for {@code server.tomcat.connection-timeout}, which gives its sender
+ * thread back.
+ */
+@Service
+public class StatsStreamService implements StatsSampleListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatsStreamService.class);
+
+    @Value("${node.stream.max-rate:1}")
+    private double maxRate;  // pushes per second per subscriber
+
+    @Value("${node.stream.max-subscribers:1000}")
+    private int maxSubscribers;
+
+    @Value("${node.stream.timeout:1800000}")
+    private long timeout;  // milliseconds
+
+    @Value("${node.stream.threads:4}")
+    private int threads;
+
+    @Value("${node.stream.send-threads:16}")
+    private int sendThreads;
+
+    @Value("${node.stream.max-lag:10000}")
+    private long maxLag;  // milliseconds a push may take before the subscriber is dropped
+
+    @Autowired
+    private StatsCollectorService statsCollectorService;
+
+    @Autowired
+    private WorkerSnapshotService workerSnapshotService;
+
+    @Autowired
+    private ThreadModeService threadModeService;
+
+    private final Map<String, Set<Subscriber>> subscribersById = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    private ScheduledExecutorService executorService;
+
+    // writes the pushes, a subscriber has one push queued or being written at most
+    private ExecutorService senderService;
+
+    @PostConstruct
+    public void init() {
+        executorService = Executors.newScheduledThreadPool(threads);
+        senderService = threadModeService.pool("stats-send", sendThreads);
+        statsCollectorService.addListener(this);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executorService.shutdownNow();
+        senderService.shutdownNow();
+    }
+
+    /**
+     * Subscribe to the samples of some workers
+     * @param ids the worker ids
+     * @return the emitter to return from the request handler
+     * @throws IllegalStateException if there are too many subscribers already
+     */
+    public SseEmitter subscribe(Collection<String> ids) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            throw new IllegalStateException("Too many stats subscribers");
+        }
+        Subscriber subscriber = new Subscriber(new LinkedHashSet<>(ids), new SseEmitter(timeout));
+        subscriber.emitter.onCompletion(subscriber::close);
+        subscriber.emitter.onTimeout(subscriber::close);
+        subscriber.emitter.onError(throwable -> subscriber.close());
+
+        // start with the current values so the client does not wait for the next sample
+        if (workerSnapshotService.isReady()) {
+            WorkerSnapshotService.Snapshot snapshot = workerSnapshotService.get();
+            for (String id : subscriber.ids) {
+                Worker worker = snapshot.getWorker(id);
+                if (worker != null && worker.getWorkerStatistics() != null) {
+                    subscriber.pending.put(id, worker.getWorkerStatistics());
+                }
+            }
+        }
+        long period = Math.max(1, (long) (1000 / maxRate));
+        subscriber.setFlusher(executorService.scheduleAtFixedRate(subscriber::flush, 0, period, TimeUnit.MILLISECONDS));
+        subscriber.ids.forEach(id -> subscribersById.computeIfAbsent(id, key -> new CopyOnWriteArraySet<>()).add(subscriber));
+        return subscriber.emitter;
+    }
+
+    @Override
+    public void onSample(String id, WorkerStatistics sample) {
+        Set<Subscriber> subscribers = subscribersById.get(id);
+        if (subscribers != null) {
+            subscribers.forEach(subscriber -> subscriber.pending.put(id, sample));
+        }
+    }
+
+    private class Subscriber {
+
+        private final Set<String> ids;
+        private final SseEmitter emitter;
+        // latest sample per worker since the last push
+        private final Map<String, WorkerStatistics> pending = new ConcurrentHashMap<>();
+        // guarded by this
+        private ScheduledFuture<?> flusher;
+        private volatile boolean closed;
+        // whether a push is queued or being written
+        private final AtomicBoolean sending = new AtomicBoolean();
+        // when the push being written was started, 0 while it is queued behind the pushes of others
+        private volatile long writeStarted;
+
+        Subscriber(Set<String> ids, SseEmitter emitter) {
+            this.ids = ids;
+            this.emitter = emitter;
+        }
+
+        // the subscriber may have been closed already, by a first push that failed
+        synchronized void setFlusher(ScheduledFuture<?> flusher) {
+            if (closed) {
+                flusher.cancel(false);
+            } else {
+                this.flusher = flusher;
+            }
+        }
+
+        // on a scheduler thread, never blocks
+        void flush() {
+            if (closed) {
+                return;
+            }
+            if (sending.get()) {
+                // samples keep being conflated while the client catches up
+                long started = writeStarted;
+                if (started != 0 && System.currentTimeMillis() - started > maxLag) {
+                    logger.debug("Stats subscriber fell behind, dropping it");
+                    close();
+                }
+                return;
+            }
+            if (pending.isEmpty() || !sending.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                senderService.execute(this::send);
+            } catch (RejectedExecutionException e) {
+                sending.set(false);
+            }
+        }
+
+        // on a sender thread, blocks while the client does not read
+        private void send() {
+            if (closed) {
+                sending.set(false);
+                return;
+            }
+            writeStarted = System.currentTimeMillis();
+            Map<String, WorkerStatistics> samples = new HashMap<>();
+            for (String id : pending.keySet()) {
+                WorkerStatistics sample = pending.remove(id);
+                if (sample != null) {
+                    samples.put(id, sample);
+                }
+            }
+            try {
+                emitter.send(SseEmitter.event().name("stats").data(samples, MediaType.APPLICATION_JSON));
+            } catch (IOException | IllegalStateException e) {
+                logger.debug("Stats subscriber went away", e);
+                close();
+            } finally {
+                writeStarted = 0;
+                sending.set(false);
+            }
+        }
+
+        synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            subscriberCount.decrementAndGet();
+            if (flusher != null) {
+                flusher.cancel(false);
+            }
+            ids.forEach(id -> subscribersById.computeIfPresent(id, (key, subscribers) -> {
+                subscribers.remove(this);
+                return subscribers.isEmpty() ? null : subscribers;
+            }));
+            // the emitter is locked while a push is written, completing it inline would block on a stalled client
+            try {
+                senderService.execute(emitter::complete);
+            } catch (RejectedExecutionException e) {
+                emitter.complete();
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package ai.openfabric.api.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A service that creates the threads which block on Docker and the request handlers, platform or virtual ones
+ * <p>
+ * In {@code virtual} mode, on a JDK with virtual threads, every thread it creates is a virtual thread, so
+ * thousands of blocked Docker calls only take a few carrier threads. The project is compiled for Java 8, so
+ * virtual threads are created through reflection. On an older JDK the mode falls back to platform threads.
+ * <p>
+ * The pools that fan out Docker calls are only sized for platform threads. In {@code virtual} mode they start a
+ * thread per task instead, and the connection pool of each Docker host is what limits concurrent calls.
+ */
+@Service
+public class ThreadModeService {
+
+    public static final String MODE_PLATFORM = "platform";
+    public static final String MODE_VIRTUAL = "virtual";
+
+    private static final Logger logger = LoggerFactory.getLogger(ThreadModeService.class);
+
+    private final boolean virtual;
+
+    public ThreadModeService(@Value("${node.threads.mode:" + MODE_PLATFORM + "}") String mode) {
+        if (!MODE_PLATFORM.equals(mode) && !MODE_VIRTUAL.equals(mode)) {
+            throw new IllegalArgumentException("Unknown thread mode: " + mode);
+        }
+        boolean supported = false;
+        if (MODE_VIRTUAL.equals(mode)) {
+            try {
+                virtualThreadFactory("probe");
+                supported = true;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                logger.warn("Virtual threads are not available on Java {}, using platform threads",
+                        System.getProperty("java.version"));
+            }
+        }
+        virtual = supported;
+        logger.info("Docker calls and request handlers run on {} threads", virtual ? MODE_VIRTUAL : MODE_PLATFORM);
+    }
+
+    /**
+     * @return whether the threads this service creates are virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * @param name what the threads are named after, they are numbered from 0
+     * @return a factory of the threads of the mode
+     */
+    public ThreadFactory threadFactory(String name) {
+        if (virtual) {
+            try {
+                return virtualThreadFactory(name);
+            } catch (ReflectiveOperationException e) {
+                // it worked for the probe
+                throw new IllegalStateException(e);
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> new Thread(runnable, name + "-" + count.getAndIncrement());
+    }
+
+    /**
+     * @param name what the threads are named after, they are numbered from 0
+     * @param threads how many platform threads the pool has, which limits the concurrent tasks
+     * @return a pool of that many platform threads, or in {@code virtual} mode one that starts a virtual thread
+     * for every task
+     */
+    public ExecutorService pool(String name, int threads) {
+        if (virtual) {
+            try {
+                // Executors.newThreadPerTaskExecutor(factory)
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, threadFactory(name));
+            } catch (ReflectiveOperationException e) {
+                // it comes with virtual threads
+                throw new IllegalStateException(e);
+            }
+        }
+        return Executors.newFixedThreadPool(threads, threadFactory(name));
+    }
+
+    /**
+     * @param name what the threads are named after
+     * @return an executor that runs every task on a thread of its own, only meant for virtual threads
+     */
+    public Executor taskExecutor(String name) {
+        ThreadFactory threadFactory = threadFactory(name);
+        return task -> threadFactory.newThread(task).start();
+    }
+
+    // Thread.ofVirtual().name(name + "-", 0).factory()
+    private static ThreadFactory virtualThreadFactory(String name) throws ReflectiveOperationException {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (InvocationTargetException e) {
+            // like on a JDK where virtual threads are a preview feature that is not enabled
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package ai.openfabric.api.service;
+
+import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.model.WorkerStatistics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers what was last written for every worker so a refresh cycle only writes what changed
+ * <p>
+ * Worker info is compared by a fingerprint of its columns. Statistics are written when a value moved by more
+ * than the configured delta, or when they turned stale or fresh.
+ */
+@Component
+public class WorkerChangeTracker {
+
+    private final Map<String, Integer> infoFingerprints = new ConcurrentHashMap<>();
+    private final Map<String, WrittenStats> writtenStats = new ConcurrentHashMap<>();
+    // worker id -> host, to forget the workers of a single host
+    private final Map<String, String> hosts = new ConcurrentHashMap<>();
+
+    // relative change of memory, network, block io, their rates and pid values that is worth a write
+    @Value("${node.db.stats-delta:0.05}")
+    private double statsDelta;
+
+    // change of the cpu usage in percentage points that is worth a write
+    @Value("${node.db.cpu-delta:1.0}")
+    private double cpuDelta;
+
+    private final Counter written;
+    private final Counter skipped;
+
+    public WorkerChangeTracker(MeterRegistry registry) {
+        written = registry.counter("worker.writes", "result", "written");
+        skipped = registry.counter("worker.writes", "result", "skipped");
+        Gauge.builder("worker.writes.skip.ratio", this, WorkerChangeTracker::skipRatio)
+                .description("Share of worker and statistics writes skipped because nothing changed")
+                .register(registry);
+    }
+
+    /**
+     * @param workers the workers of a refresh cycle
+     * @return the workers whose info differs from what was last written
+     */
+    public List<Worker> changedInfo(Collection<Worker> workers) {
+        List<Worker> changed = new ArrayList<>();
+        for (Worker worker : workers) {
+            if (!Objects.equals(infoFingerprints.get(worker.getId()), fingerprint(worker))) {
+                changed.add(worker);
+            }
+        }
+        count(workers.size(), changed.size());
+        return changed;
+    }
+
+    /**
+     * @param workers the workers of a refresh cycle
+     * @return the workers whose statistics moved enough since they were last written
+     */
+    public List<Worker> changedStatistics(Collection<Worker> workers) {
+        List<Worker> changed = new ArrayList<>();
+        int total = 0;
+        for (Worker worker : workers) {
+            WorkerStatistics workerStatistics = worker.getWorkerStatistics();
+            if (workerStatistics == null) {
+                continue;
+            }
+            total++;
+            WrittenStats last = writtenStats.get(worker.getId());
+            if (last == null || last.differs(workerStatistics)) {
+                changed.add(worker);
+            }
+        }
+        count(total, changed.size());
+        return changed;
+    }
+
+    /**
+     * Remember the info of the workers once it has been written
+     * @param workers the written workers
+     */
+    public void recordInfo(Collection<Worker> workers) {
+        workers.forEach(worker -> {
+            infoFingerprints.put(worker.getId(), fingerprint(worker));
+            hosts.put(worker.getId(), worker.getHost());
+        });
+    }
+
+    /**
+     * Remember the statistics of the workers once they have been written
+     * @param workers the workers whose statistics were written
+     */
+    public void recordStatistics(Collection<Worker> workers) {
+        workers.forEach(worker -> {
+            writtenStats.put(worker.getId(), new WrittenStats(worker.getWorkerStatistics()));
+            hosts.put(worker.getId(), worker.getHost());
+        });
+    }
+
+    /**
+     * Forget a worker, the next time it is seen it is written in full
+     * @param id the worker id
+     */
+    public void forget(String id) {
+        infoFingerprints.remove(id);
+        writtenStats.remove(id);
+        hosts.remove(id);
+    }
+
+    /**
+     * Forget every worker of a host, after another replica may have written them
+     * @param host the host
+     */
+    public void clear(String host) {
+        hosts.entrySet().removeIf(entry -> {
+            if (!host.equals(entry.getValue())) {
+                return false;
+            }
+            infoFingerprints.remove(entry.getKey());
+            writtenStats.remove(entry.getKey());
+            return true;
+        });
+    }
+
+    public double skipRatio() {
+        double total = written.count() + skipped.count();
+        return total == 0 ? 0 : skipped.count() / total;
+    }
+
+    private void count(int total, int changed) {
+        written.increment(changed);
+        skipped.increment(total - changed);
+    }
+
+    private static int fingerprint(Worker worker) {
+        return Objects.hash(worker.getHost(), worker.getName(), worker.getState(), worker.getStatus(),
+                worker.getImage(), worker.getImageId(), worker.getCommand(), worker.getPortsColumn(),
+                worker.getCreated(), worker.getLabels());
+    }
+
+    private class WrittenStats {
+        private final float cpuUsage;
+        private final float memoryUsage;
+        private final long networkIn;
+        private final long networkOut;
+        private final long blockIn;
+        private final long blockOut;
+        private final float networkInRate;
+        private final float networkOutRate;
+        private final float blockInRate;
+        private final float blockOutRate;
+        private final long pidCount;
+        private final boolean stale;
+
+        WrittenStats(WorkerStatistics workerStatistics) {
+            cpuUsage = workerStatistics.getCpuUsage();
+            memoryUsage = workerStatistics.getMemoryUsage();
+            networkIn = workerStatistics.getNetworkIn();
+            networkOut = workerStatistics.getNetworkOut();
+            blockIn = workerStatistics.getBlockIn();
+            blockOut = workerStatistics.getBlockOut();
+            networkInRate = workerStatistics.getNetworkInRate();
+            networkOutRate = workerStatistics.getNetworkOutRate();
+            blockInRate = workerStatistics.getBlockInRate();
+            blockOutRate = workerStatistics.getBlockOutRate();
+            pidCount = workerStatistics.getPidCount();
+            stale = workerStatistics.isStale();
+        }
+
+        boolean differs(WorkerStatistics workerStatistics) {
+            if (stale != workerStatistics.isStale()) {
+                return true;
+            }
+            if (workerStatistics.isStale()) {
+                // nothing new to write until a fresh sample arrives
+                return false;
+            }
+            return Math.abs(cpuUsage - workerStatistics.getCpuUsage()) > cpuDelta
+                    || moved(memoryUsage, workerStatistics.getMemoryUsage())
+                    || moved(networkIn, workerStatistics.getNetworkIn())
+                    || moved(networkOut, workerStatistics.getNetworkOut())
+                    || moved(blockIn, workerStatistics.getBlockIn())
+                    || moved(blockOut, workerStatistics.getBlockOut())
+                    || moved(networkInRate, workerStatistics.getNetworkInRate())
+                    || moved(networkOutRate, workerStatistics.getNetworkOutRate())
+                    || moved(blockInRate, workerStatistics.getBlockInRate())
+                    || moved(blockOutRate, workerStatistics.getBlockOutRate())
+                    || moved(pidCount, workerStatistics.getPidCount());
+        }
+
+        private boolean moved(double before, double after) {
+            return Math.abs(after - before) > statsDelta * Math.max(Math.abs(before), Math.abs(after));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package ai.openfabric.api.service;
+
+import ai.openfabric.api.repository.WorkerRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A service that deletes the workers whose containers are gone, once they were tombstoned for the retention
+ * <p>
+ * Refresh cycles tombstone the stored workers a host no longer lists, and destroy events the worker they
+ * are about, by setting their {@code deletedAt}. Until they are purged they are kept out of every list.
+ * They are deleted in batches, so no single statement holds its locks for long.
+ * With several replicas the job runs on whichever holds the {@value #LEASE} lease.
+ */
+@Service
+public class WorkerPurgeService {
+
+    public static final int PURGE_INTERVAL = 600000;  // 10 minutes
+
+    public static final String LEASE = "purge";
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkerPurgeService.class);
+
+    @Value("${node.purge.retention:1d}")
+    private Duration retention;
+
+    @Value("${node.db.batch-size:500}")
+    private int batchSize;
+
+    @Autowired
+    private WorkerRepository workerRepository;
+
+    @Autowired
+    private RefreshLeaseService refreshLeaseService;
+
+    private ScheduledExecutorService executorService;
+
+    @PostConstruct
+    public void init() {
+        executorService = Executors.newSingleThreadScheduledExecutor();
+        executorService.scheduleWithFixedDelay(this::purge, PURGE_INTERVAL, PURGE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    private void purge() {
+        try {
+            // held across runs, so it outlives the interval between them
+            if (!refreshLeaseService.acquire(LEASE, 2 * PURGE_INTERVAL)) {
+                // another replica purges the shared tables
+                return;
+            }
+            Date before = new Date(System.currentTimeMillis() - retention.toMillis());
+            int purged = 0;
+            int deleted;
+            do {
+                deleted = workerRepository.purgeDeletedBefore(before, batchSize);
+                purged += deleted;
+            } while (deleted == batchSize);
+            if (purged > 0) {
+                logger.info("Purged {} workers tombstoned before {}", purged, before);
+            }
+        } catch (RuntimeException e) {
+            // keep the schedule alive, the next run will try again
+            logger.error("Could not purge tombstoned workers", e);
+        }
+    }
+}
@@ -0,0 +1,533 @@
+package ai.openfabric.api.service;
+
+import ai.openfabric.api.model.Worker;
+import ai.openfabric.api.model.WorkerStatistics;
+import ai.openfabric.api.repository.WorkerCursor;
+import ai.openfabric.api.repository.WorkerFilter;
+import ai.openfabric.api.repository.WorkerListEntry;
+import ai.openfabric.api.repository.WorkerRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * An in-memory copy of every worker and its latest statistics that serves the read endpoints
+ * <p>
+ * The refresh cycle publishes a new immutable {@link Snapshot} after every write, readers always see a
+ * complete one without locking. The database is only read once, to fill the first snapshot at startup.
+ */
+@Service
+public class WorkerSnapshotService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkerSnapshotService.class);
+
+    // sort keys of the fields in WorkerCursor.SORT_FIELDS
+    private static final Map<String, Function<Worker, Object>> SORT_FIELDS = new HashMap<>();
+
+    static {
+        SORT_FIELDS.put("id", Worker::getId);
+        SORT_FIELDS.put("name", Worker::getName);
+        SORT_FIELDS.put("state", Worker::getState);
+        SORT_FIELDS.put("image", Worker::getImage);
+        // dates loaded by Hibernate are Timestamps, which do not compare with Dates both ways
+        SORT_FIELDS.put("created", worker -> worker.getCreated() == null ? null : new Date(worker.getCreated().getTime()));
+    }
+
+    @Value("${node.snapshot.enabled:true}")
+    private boolean enabled;
+
+    @Autowired
+    private WorkerRepository workerRepository;
+
+    private volatile Snapshot snapshot;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            List<Worker> workers = new ArrayList<>();
+            workerRepository.findAllWithStatistics().forEach(worker -> workers.add(copyOf(worker, worker.getWorkerStatistics())));
+            snapshot = new Snapshot(workers);
+            logger.info("Loaded {} workers into the snapshot", workers.size());
+        } catch (RuntimeException e) {
+            // the first refresh cycle publishes a complete snapshot anyway
+            logger.warn("Could not load the worker snapshot, reads use the database until the first refresh", e);
+        }
+    }
+
+    /**
+     * @return true if reads can be served from the snapshot
+     */
+    public boolean isReady() {
+        return enabled && snapshot != null;
+    }
+
+    public Snapshot get() {
+        return snapshot;
+    }
+
+    /**
+     * Replace the workers of a host with the ones of its full refresh cycle, the other hosts are kept
+     * <p>
+     * Workers without fresh statistics keep the ones of the previous snapshot, marked stale if they were not collected.
+     * @param host the host that was refreshed
+     * @param workers every worker of the host, they must not be modified after this call
+     */
+    public synchronized void publish(String host, Collection<Worker> workers) {
+        if (!enabled) {
+            return;
+        }
+        Snapshot previous = snapshot;
+        List<Worker> next = new ArrayList<>(workers.size() + (previous == null ? 0 : previous.size()));
+        if (previous != null) {
+            previous.workers.values().stream().filter(worker -> !host.equals(worker.getHost())).forEach(next::add);
+        }
+        for (Worker worker : workers) {
+            Worker before = previous == null ? null : previous.workers.get(worker.getId());
+            next.add(merge(worker, before));
+        }
+        snapshot = new Snapshot(next);
+    }
+
+    /**
+     * Replace the workers of a host with the ones loaded from the database, as another replica wrote them
+     * @param host the host that was loaded
+     * @param workers every stored worker of the host
+     * @return the workers whose statistics were written since the previous snapshot
+     */
+    public synchronized List<Worker> publishLoaded(String host, Collection<Worker> workers) {
+        List<Worker> refreshed = new ArrayList<>();
+        if (!enabled) {
+            return refreshed;
+        }
+        Snapshot previous = snapshot;
+        List<Worker> next = new ArrayList<>(workers.size() + (previous == null ? 0 : previous.size()));
+        if (previous != null) {
+            previous.workers.values().stream().filter(worker -> !host.equals(worker.getHost())).forEach(next::add);
+        }
+        for (Worker worker : workers) {
+            Worker copy = copyOf(worker, worker.getWorkerStatistics());
+            next.add(copy);
+            Worker before = previous == null ? null : previous.workers.get(worker.getId());
+            if (isRefreshed(copy, before)) {
+                refreshed.add(copy);
+            }
+        }
+        snapshot = new Snapshot(next);
+        return refreshed;
+    }
+
+    /**
+     * Apply the workers of a host that were written to the database since it was last loaded, as another replica
+     * wrote them
+     * @param workers the written workers, tombstoned ones are removed
+     * @return the workers whose statistics were written since the previous snapshot
+     */
+    public synchronized List<Worker> publishLoadedChanges(Collection<Worker> workers) {
+        List<Worker> refreshed = new ArrayList<>();
+        Snapshot previous = snapshot;
+        if (!enabled || previous == null || workers.isEmpty()) {
+            return refreshed;
+        }
+        Map<String, Worker> next = new HashMap<>(previous.workers);
+        boolean statisticsOnly = true;
+        for (Worker worker : workers) {
+            Worker before = next.get(worker.getId());
+            if (worker.deletedAt != null) {
+                statisticsOnly &= next.remove(worker.getId()) == null;
+                continue;
+            }
+            Worker copy = copyOf(worker, worker.getWorkerStatistics());
+            next.put(copy.getId(), copy);
+            statisticsOnly &= before != null && sameInfo(before, copy);
+            if (isRefreshed(copy, before)) {
+                refreshed.add(copy);
+            }
+        }
+        snapshot = statisticsOnly ? new Snapshot(next.values(), previous) : new Snapshot(next.values());
+        return refreshed;
+    }
+
+    /**
+     * Replace the statistics of some workers, the rest of the snapshot is kept
+     * @param workers the workers whose statistics were refreshed
+     */
+    public synchronized void publishStatistics(Collection<Worker> workers) {
+        Snapshot previous = snapshot;
+        if (!enabled || previous == null) {
+            return;
+        }
+        Map<String, Worker> next = new HashMap<>(previous.workers);
+        for (Worker worker : workers) {
+            Worker before = next.get(worker.getId());
+            if (before != null) {
+                next.put(worker.getId(), copyOf(before, statisticsOf(worker.getWorkerStatistics(), before)));
+            }
+        }
+        // statistics are neither sort keys nor filtered on, the orders and indexes still hold
+        snapshot = new Snapshot(next.values(), previous);
+    }
+
+    /**
+     * Replace the info of a single worker, keeping its statistics
+     * @param worker the worker
+     */
+    public synchronized void publishWorker(Worker worker) {
+        Snapshot previous = snapshot;
+        if (!enabled || previous == null) {
+            return;
+        }
+        Map<String, Worker> next = new HashMap<>(previous.workers);
+        Worker before = next.get(worker.getId());
+        next.put(worker.getId(), copyOf(worker, before == null ? null : before.getWorkerStatistics()));
+        snapshot = new Snapshot(next.values());
+    }
+
+    /**
+     * Remove a worker from the snapshot
+     * @param id the worker id
+     */
+    public synchronized void publishRemoval(String id) {
+        Snapshot previous = snapshot;
+        if (!enabled || previous == null || !previous.workers.containsKey(id)) {
+            return;
+        }
+        Map<String, Worker> next = new HashMap<>(previous.workers);
+        next.remove(id);
+        snapshot = new Snapshot(next.values());
+    }
+
+    // whether the statistics of a loaded worker were written since the ones it had in the snapshot
+    private static boolean isRefreshed(Worker copy, Worker before) {
+        WorkerStatistics current = copy.getWorkerStatistics();
+        WorkerStatistics last = before == null ? null : before.getWorkerStatistics();
+        return current != null && !current.isStale()
+                && (last == null || !Objects.equals(current.updatedAt, last.updatedAt));
+    }
+
+    // whether two versions of a worker list and filter the same, everything but the statistics
+    private static boolean sameInfo(Worker worker, Worker other) {
+        return Objects.equals(worker.getHost(), other.getHost()) && Objects.equals(worker.getName(), other.getName())
+                && Objects.equals(worker.getPortsColumn(), other.getPortsColumn())
+                && Objects.equals(worker.getStatus(), other.getStatus())
+                && Objects.equals(worker.getState(), other.getState())
+                && Objects.equals(worker.getImage(), other.getImage())
+                && Objects.equals(worker.getLabels(), other.getLabels())
+                // Timestamps and Dates do not equal each other
+                && (worker.getCreated() == null ? other.getCreated() == null
+                        : other.getCreated() != null && worker.getCreated().getTime() == other.getCreated().getTime());
+    }
+
+    private static Worker merge(Worker worker, Worker before) {
+        Worker copy = copyOf(worker, statisticsOf(worker.getWorkerStatistics(), before));
+        if (before != null) {
+            copy.createdAt = before.createdAt;
+        }
+        return copy;
+    }
+
+    private static WorkerStatistics statisticsOf(WorkerStatistics current, Worker before) {
+        WorkerStatistics previous = before == null ? null : before.getWorkerStatistics();
+        if (current != null && !current.isStale()) {
+            return current;
+        }
+        // not collected this cycle, or collection failed: keep the last values like the database does
+        if (previous == null || current == null || previous.isStale()) {
+            return previous;
+        }
+        WorkerStatistics stale = copyOf(previous);
+        stale.setStale(true);
+        return stale;
+    }
+
+    private static Worker copyOf(Worker worker, WorkerStatistics workerStatistics) {
+        Worker copy = new Worker(worker.getId(), worker.getHost(), worker.getName(), worker.getPortsColumn(), worker.getStatus(),
+                worker.getState(), worker.getImage(), worker.getImageId(), worker.getCommand(), worker.getCreated(),
+                worker.getLabels(), workerStatistics);
+        copy.createdAt = worker.createdAt == null ? new Date() : worker.createdAt;
+        copy.updatedAt = worker.updatedAt == null ? new Date() : worker.updatedAt;
+        return copy;
+    }
+
+    private static WorkerStatistics copyOf(WorkerStatistics workerStatistics) {
+        WorkerStatistics copy = new WorkerStatistics();
+        copy.setId(workerStatistics.getId());
+        copy.setCpuUsage(workerStatistics.getCpuUsage());
+        copy.setMemoryUsage(workerStatistics.getMemoryUsage());
+        copy.setNetworkIn(workerStatistics.getNetworkIn());
+        copy.setNetworkOut(workerStatistics.getNetworkOut());
+        copy.setBlockIn(workerStatistics.getBlockIn());
+        copy.setBlockOut(workerStatistics.getBlockOut());
+        copy.setNetworkInRate(workerStatistics.getNetworkInRate());
+        copy.setNetworkOutRate(workerStatistics.getNetworkOutRate());
+        copy.setBlockInRate(workerStatistics.getBlockInRate());
+        copy.setBlockOutRate(workerStatistics.getBlockOutRate());
+        copy.setPidCount(workerStatistics.getPidCount());
+        copy.setStale(workerStatistics.isStale());
+        copy.createdAt = workerStatistics.createdAt;
+        copy.updatedAt = workerStatistics.updatedAt;
+        return copy;
+    }
+
+    /**
+     * An immutable view of every worker, list orders and filter indexes are computed on first use and kept with it
+     * <p>
+     * Filters on the image, a port or a label only test the workers the index of that field returns, the others
+     * test every worker in list order.
+     */
+    public static final class Snapshot {
+
+        private static final String INDEX_IMAGE = "image";
+        private static final String INDEX_PORT = "port";
+        private static final String INDEX_LABEL = "label";
+
+        private final Map<String, Worker> workers;
+        private final Map<String, Order> sorted = new ConcurrentHashMap<>();
+        // field -> value -> workers with it, labels by key
+        private final Map<String, Map<Object, List<Worker>>> indexes = new ConcurrentHashMap<>();
+
+        private Snapshot(Collection<Worker> workers) {
+            Map<String, Worker> byId = new HashMap<>(workers.size() * 2);
+            workers.forEach(worker -> byId.put(worker.getId(), worker));
+            this.workers = Collections.unmodifiableMap(byId);
+        }
+
+        // the same workers with other statistics, what was computed for the previous one still holds
+        private Snapshot(Collection<Worker> workers, Snapshot previous) {
+            this(workers);
+            sorted.putAll(previous.sorted);
+            indexes.putAll(previous.indexes);
+        }
+
+        public Worker getWorker(String id) {
+            return workers.get(id);
+        }
+
+        public int size() {
+            return workers.size();
+        }
+
+        /**
+         * @return every worker, in no particular order
+         */
+        public Collection<Worker> getWorkers() {
+            return workers.values();
+        }
+
+        /**
+         * Count the workers that match a filter
+         * @param filter the filter
+         * @return the number of matching workers
+         */
+        public long count(WorkerFilter filter) {
+            if (filter.isEmpty()) {
+                return workers.size();
+            }
+            List<Worker> candidates = candidates(filter);
+            return (candidates == null ? workers.values() : candidates).stream().filter(filter::matches).count();
+        }
+
+        /**
+         * Get the rows of the worker list that follow a cursor,
+         * like {@link WorkerRepository#findAllMinimal(WorkerCursor, WorkerFilter, int)}
+         * @param cursor the position to continue from
+         * @param filter the workers to list
+         * @param limit the most rows to return
+         * @return the rows in list order
+         */
+        public List<WorkerListEntry> findAllMinimal(WorkerCursor cursor, WorkerFilter filter, int limit) {
+            Order order = sorted.computeIfAbsent(cursor.getField(), this::sortBy);
+            WorkerListEntry[] ordered = order.entries;
+            List<Worker> candidates = filter.isEmpty() ? null : candidates(filter);
+            if (candidates != null) {
+                return findCandidates(order, candidates, cursor, filter, limit);
+            }
+            List<WorkerListEntry> rows = new ArrayList<>(Math.min(limit, ordered.length));
+            if (cursor.isAscending()) {
+                int start = cursor.isStarted() ? search(ordered, cursor, false) : 0;
+                for (int i = start; i < ordered.length && rows.size() < limit; i++) {
+                    addIfMatches(rows, order, i, filter);
+                }
+            } else {
+                int start = cursor.isStarted() ? search(ordered, cursor, true) - 1 : ordered.length - 1;
+                for (int i = start; i >= 0 && rows.size() < limit; i--) {
+                    addIfMatches(rows, order, i, filter);
+                }
+            }
+            return rows;
+        }
+
+        // the matching candidates in list order, from their positions in it
+        private static List<WorkerListEntry> findCandidates(Order order, List<Worker> candidates, WorkerCursor cursor,
+                                                            WorkerFilter filter, int limit) {
+            int[] positions = new int[candidates.size()];
+            int matching = 0;
+            for (Worker worker : candidates) {
+                if (filter.matches(worker)) {
+                    positions[matching++] = order.positions.get(worker.getId());
+                }
+            }
+            Arrays.sort(positions, 0, matching);
+            List<WorkerListEntry> rows = new ArrayList<>(Math.min(limit, matching));
+            if (cursor.isAscending()) {
+                int start = cursor.isStarted() ? search(order.entries, cursor, false) : 0;
+                for (int i = firstAtOrAfter(positions, matching, start); i < matching && rows.size() < limit; i++) {
+                    rows.add(order.entries[positions[i]]);
+                }
+            } else {
+                int start = cursor.isStarted() ? search(order.entries, cursor, true) : order.entries.length;
+                for (int i = firstAtOrAfter(positions, matching, start) - 1; i >= 0 && rows.size() < limit; i--) {
+                    rows.add(order.entries[positions[i]]);
+                }
+            }
+            return rows;
+        }
+
+        // index of the first of the sorted positions that is at least the position
+        private static int firstAtOrAfter(int[] positions, int length, int position) {
+            int found = Arrays.binarySearch(positions, 0, length, position);
+            return found < 0 ? -found - 1 : found;
+        }
+
+        // the workers of the most selective indexed criterion of the filter, null if it has none
+        private List<Worker> candidates(WorkerFilter filter) {
+            List<Worker> candidates = null;
+            if (filter.getImage() != null) {
+                candidates = fewer(candidates, lookup(INDEX_IMAGE, filter.getImage()));
+            }
+            if (filter.getPort() != null) {
+                candidates = fewer(candidates, lookup(INDEX_PORT, filter.getPort()));
+            }
+            for (String key : filter.getLabels().keySet()) {
+                candidates = fewer(candidates, lookup(INDEX_LABEL, key));
+            }
+            return candidates;
+        }
+
+        private static List<Worker> fewer(List<Worker> candidates, List<Worker> others) {
+            return candidates == null || others.size() < candidates.size() ? others : candidates;
+        }
+
+        private List<Worker> lookup(String field, Object value) {
+            return indexes.computeIfAbsent(field, this::index).getOrDefault(value, Collections.emptyList());
+        }
+
+        private Map<Object, List<Worker>> index(String field) {
+            Map<Object, List<Worker>> index = new HashMap<>();
+            for (Worker worker : workers.values()) {
+                switch (field) {
+                    case INDEX_IMAGE:
+                        addTo(index, worker.getImage(), worker);
+                        break;
+                    case INDEX_PORT:
+                        if (worker.getPortsColumn() != null) {
+                            worker.getPorts().forEach(port -> addTo(index, port, worker));
+                        }
+                        break;
+                    case INDEX_LABEL:
+                        worker.getLabels().keySet().forEach(key -> addTo(index, key, worker));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("No index of " + field);
+                }
+            }
+            return index;
+        }
+
+        private static void addTo(Map<Object, List<Worker>> index, Object value, Worker worker) {
+            List<Worker> withValue = index.computeIfAbsent(value, v -> new ArrayList<>());
+            // a port published on IPv4 and IPv6 is listed twice
+            if (withValue.isEmpty() || withValue.get(withValue.size() - 1) != worker) {
+                withValue.add(worker);
+            }
+        }
+
+        private static void addIfMatches(List<WorkerListEntry> rows, Order order, int i, WorkerFilter filter) {
+            if (filter.isEmpty() || filter.matches(order.workers[i])) {
+                rows.add(order.entries[i]);
+            }
+        }
+
+        // index of the first row after the cursor position, or at it if inclusive
+        private static int search(WorkerListEntry[] ordered, WorkerCursor cursor, boolean inclusive) {
+            int low = 0;
+            int high = ordered.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int c = compare(ordered[middle].getSortValue(), ordered[middle].getId(), cursor.getValue(), cursor.getId());
+                if (c < 0 || (c == 0 && !inclusive)) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private Order sortBy(String field) {
+            Function<Worker, Object> key = SORT_FIELDS.get(field);
+            WorkerListEntry[] ordered = new WorkerListEntry[workers.size()];
+            int i = 0;
+            for (Worker worker : workers.values()) {
+                ordered[i++] = new WorkerListEntry(worker.getId(), worker.getHost(), worker.getName(),
+                        worker.getState(), worker.getStatus(), key.apply(worker));
+            }
+            Arrays.sort(ordered, (a, b) -> compare(a.getSortValue(), a.getId(), b.getSortValue(), b.getId()));
+            // filters test the workers in list order, without a lookup per row
+            Worker[] sortedWorkers = new Worker[ordered.length];
+            Map<String, Integer> positions = new HashMap<>(ordered.length * 2);
+            for (i = 0; i < ordered.length; i++) {
+                sortedWorkers[i] = workers.get(ordered[i].getId());
+                positions.put(ordered[i].getId(), i);
+            }
+            return new Order(ordered, sortedWorkers, positions);
+        }
+
+        // ascending list order, nulls last
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static int compare(Object value, String id, Object otherValue, String otherId) {
+            if (value == null || otherValue == null) {
+                if (value != otherValue) {
+                    return value == null ? 1 : -1;
+                }
+            } else {
+                int c = ((Comparable) value).compareTo(otherValue);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return id.compareTo(otherId);
+        }
+
+        // the rows of a sort field in list order, next to their workers, and where each worker is in it
+        private static final class Order {
+
+            private final WorkerListEntry[] entries;
+            private final Worker[] workers;
+            private final Map<String, Integer> positions;
+
+            private Order(WorkerListEntry[] entries, Worker[] workers, Map<String, Integer> positions) {
+                this.entries = entries;
+                this.workers = workers;
+                this.positions = positions;
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package ai.openfabric.api.config;
+
+import ai.openfabric.api.service.ThreadModeService;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServer;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * The threads requests are handled on by an embedded Tomcat customized by {@link TomcatConfig}
+ */
+class TomcatConfigTest {
+
+    @Test
+    void platformModeKeepsTheWorkerPool() throws IOException {
+        ThreadModeService threadModeService = new ThreadModeService(ThreadModeService.MODE_PLATFORM);
+
+        assertTrue(handlerThread(threadModeService).startsWith("platform http-nio-"));
+    }
+
+    @Test
+    void virtualModeHandlesOnVirtualThreads() throws IOException {
+        ThreadModeService threadModeService = new ThreadModeService(ThreadModeService.MODE_VIRTUAL);
+        assumeTrue(threadModeService.isVirtual(), "virtual threads need JDK 21");
+
+        assertTrue(handlerThread(threadModeService).startsWith("virtual http-"));
+    }
+
+    // whether the handler of a request ran on a virtual thread, and the name of its thread
+    private static String handlerThread(ThreadModeService threadModeService) throws IOException {
+        TomcatServletWebServerFactory factory = new TomcatServletWebServerFactory(0);
+        new TomcatConfig().threadModeCustomizer(threadModeService).customize(factory);
+        WebServer server = factory.getWebServer(context -> context.addServlet("thread", new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                Thread thread = Thread.currentThread();
+                response.getWriter().print((isVirtual(thread) ? "virtual " : "platform ") + thread.getName());
+            }
+        }).addMapping("/"));
+        server.start();
+        try (InputStream in = new URL("http://localhost:" + server.getPort() + "/").openStream()) {
+            return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static boolean isVirtual(Thread thread) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package ai.openfabric.api.service;
+
+import ai.openfabric.api.model.WorkerStatistics;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.dockerjava.api.model.Statistics;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Extraction of statistics from stats responses captured from Docker Engines on cgroup v1 and v2 hosts
+ */
+class DockerAPIServiceTest {
+
+    // Read, Write, Sync, Async, Discard and Total entries for two devices, memory with page cache, two networks
+    private static final String STATS_CGROUP_V1 = "stats-cgroup1.json";
+    // lower case read and write entries, no page cache in the memory stats, one network
+    private static final String STATS_CGROUP_V2 = "stats-cgroup2.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Test
+    void extractsCgroupV1() throws IOException {
+        StatsSample sample = extract(read(STATS_CGROUP_V1));
+
+        // usage 318922752 less cache 57176064
+        assertEquals(261746688L, sample.getMemoryUsage());
+        // 167454701 ns of 4020000000 ns on 4 cpus
+        assertEquals(16.66216f, sample.getCpuUsage(), 0.0001f);
+        assertEquals(23L, sample.getPidCount());
+        // eth0 and eth1
+        assertEquals(1864412387L + 12944L, sample.getNetworkIn());
+        assertEquals(301215440L, sample.getNetworkOut());
+        // Read and Write of both devices, Sync, Async, Discard and Total are not counted
+        assertEquals(2 * 48062464L, sample.getBlockIn());
+        assertEquals(2 * 2863104L, sample.getBlockOut());
+    }
+
+    @Test
+    void extractsCgroupV2() throws IOException {
+        StatsSample sample = extract(read(STATS_CGROUP_V2));
+
+        // no cache to take off
+        assertEquals(24956928L, sample.getMemoryUsage());
+        // 8638000 ns of 8030000000 ns on 8 cpus
+        assertEquals(0.86057f, sample.getCpuUsage(), 0.0001f);
+        assertEquals(7L, sample.getPidCount());
+        assertEquals(44812L, sample.getNetworkIn());
+        assertEquals(8120L, sample.getNetworkOut());
+        assertEquals(11882496L, sample.getBlockIn());
+        assertEquals(409600L, sample.getBlockOut());
+    }
+
+    @Test
+    void copiesToWorkerStatistics() throws IOException {
+        Statistics statistics = statistics(read(STATS_CGROUP_V1));
+        StatsSample sample = new StatsSample();
+        DockerAPIService.extractStats(statistics, sample);
+        WorkerStatistics workerStatistics = new WorkerStatistics();
+        DockerAPIService.extractStats(statistics, workerStatistics);
+
+        assertEquals(sample.getMemoryUsage(), workerStatistics.getMemoryUsage());
+        assertEquals(sample.getCpuUsage(), workerStatistics.getCpuUsage());
+        assertEquals(sample.getPidCount(), workerStatistics.getPidCount());
+        assertEquals(sample.getNetworkIn(), workerStatistics.getNetworkIn());
+        assertEquals(sample.getNetworkOut(), workerStatistics.getNetworkOut());
+        assertEquals(sample.getBlockIn(), workerStatistics.getBlockIn());
+        assertEquals(sample.getBlockOut(), workerStatistics.getBlockOut());
+    }
+
+    @Test
+    void extractsNullAsZero() throws IOException {
+        // a sample that was filled before must not keep any of it
+        StatsSample sample = extract(read(STATS_CGROUP_V1));
+        DockerAPIService.extractStats(null, sample);
+
+        assertEquals(0L, sample.getMemoryUsage());
+        assertEquals(0f, sample.getCpuUsage());
+        assertEquals(0L, sample.getPidCount());
+        assertEquals(0L, sample.getNetworkIn());
+        assertEquals(0L, sample.getNetworkOut());
+        assertEquals(0L, sample.getBlockIn());
+        assertEquals(0L, sample.getBlockOut());
+    }
+
+    @Test
+    void extractsEmptyStatistics() throws IOException {
+        // a stopped container, every section missing
+        StatsSample sample = extract(MAPPER.createObjectNode());
+
+        assertEquals(0L, sample.getMemoryUsage());
+        // 0 of 0 ns, as before the extraction stopped allocating
+        assertTrue(Float.isNaN(sample.getCpuUsage()));
+        assertEquals(0L, sample.getPidCount());
+        assertEquals(0L, sample.getNetworkIn());
+        assertEquals(0L, sample.getNetworkOut());
+        assertEquals(0L, sample.getBlockIn());
+        assertEquals(0L, sample.getBlockOut());
+    }
+
+    @Test
+    void extractsWithoutNetworks() throws IOException {
+        // a container with --network none
+        ObjectNode json = read(STATS_CGROUP_V1);
+        json.remove("networks");
+        StatsSample sample = extract(json);
+
+        assertEquals(0L, sample.getNetworkIn());
+        assertEquals(0L, sample.getNetworkOut());
+        // everything else as with networks
+        assertEquals(261746688L, sample.getMemoryUsage());
+        assertEquals(16.66216f, sample.getCpuUsage(), 0.0001f);
+        assertEquals(23L, sample.getPidCount());
+        assertEquals(2 * 48062464L, sample.getBlockIn());
+        assertEquals(2 * 2863104L, sample.getBlockOut());
+    }
+
+    @Test
+    void extractsMixedCaseOps() throws IOException {
+        ObjectNode json = read(STATS_CGROUP_V2);
+        ArrayNode entries = json.with("blkio_stats").putArray("io_service_bytes_recursive");
+        entries.addObject().put("op", "READ").put("value", 1000);
+        entries.addObject().put("op", "rEaD").put("value", 200);
+        entries.addObject().put("op", "WRITE").put("value", 30);
+        entries.addObject().put("op", "Write").put("value", 4);
+        entries.addObject().put("op", "TOTAL").put("value", 1234);
+        entries.addObject().put("op", "sync").put("value", 1234);
+        // neither counted nor a failure
+        entries.addObject().put("value", 50000);
+        entries.addObject().put("op", "read");
+        StatsSample sample = extract(json);
+
+        assertEquals(1200L, sample.getBlockIn());
+        assertEquals(34L, sample.getBlockOut());
+    }
+
+    private static StatsSample extract(ObjectNode json) throws IOException {
+        StatsSample sample = new StatsSample();
+        DockerAPIService.extractStats(statistics(json), sample);
+        return sample;
+    }
+
+    private static Statistics statistics(ObjectNode json) throws IOException {
+        return MAPPER.treeToValue(json, Statistics.class);
+    }
+
+    private static ObjectNode read(String name) throws IOException {
+        try (InputStream in = DockerAPIServiceTest.class.getResourceAsStream("/docker/" + name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No fixture " + name);
+            }
+            return (ObjectNode) MAPPER.readTree(in);
+        }
+    }
+}
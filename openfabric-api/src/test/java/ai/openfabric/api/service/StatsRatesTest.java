@@ -0,0 +1,156 @@
+package ai.openfabric.api.service;
+
+import ai.openfabric.api.model.WorkerStatistics;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.dockerjava.api.model.Statistics;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Rates of consecutive samples of a container, built from a stats response captured from a cgroup v1 host
+ */
+class StatsRatesTest {
+
+    private static final String ID = "c0ffee";
+    private static final String READ = "2022-11-21T13:02:41.512093724Z";
+
+    // eth0 and eth1, Read and Write of both devices, as in the capture
+    private static final long NETWORK_IN = 1864412387L + 12944L;
+    private static final long NETWORK_OUT = 301215440L;
+    private static final long BLOCK_IN = 2 * 48062464L;
+    private static final long BLOCK_OUT = 2 * 2863104L;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final StatsRates rates = new StatsRates();
+
+    @Test
+    void firstSampleHasNoRates() throws IOException {
+        WorkerStatistics sample = apply(sample(READ, 0));
+
+        assertEquals(0f, sample.getNetworkInRate());
+        assertEquals(0f, sample.getNetworkOutRate());
+        assertEquals(0f, sample.getBlockInRate());
+        assertEquals(0f, sample.getBlockOutRate());
+        assertEquals(NETWORK_IN, sample.getNetworkIn());
+        assertEquals(BLOCK_OUT, sample.getBlockOut());
+    }
+
+    @Test
+    void ratesOverTheReadTimes() throws IOException {
+        apply(sample(READ, 0));
+        // read 2.5 seconds later, however late it arrived
+        WorkerStatistics sample = apply(sample("2022-11-21T13:02:44.012093724Z", 1000));
+
+        assertEquals(400f, sample.getNetworkInRate(), 0.001f);
+        assertEquals(400f, sample.getNetworkOutRate(), 0.001f);
+        assertEquals(400f, sample.getBlockInRate(), 0.001f);
+        assertEquals(400f, sample.getBlockOutRate(), 0.001f);
+    }
+
+    @Test
+    void resetCountsTheNewValue() throws IOException {
+        apply(sample(READ, 0));
+        // restarted, the counters start over
+        ObjectNode json = sample("2022-11-21T13:02:43.512093724Z", 0);
+        json.with("networks").with("eth0").put("rx_bytes", 3000);
+        json.with("networks").with("eth1").put("rx_bytes", 1000);
+        WorkerStatistics sample = apply(json);
+
+        assertEquals(4000L, sample.getNetworkIn());
+        assertEquals(2000f, sample.getNetworkInRate(), 0.001f);
+        assertEquals(0f, sample.getNetworkOutRate());
+    }
+
+    @Test
+    void missingSectionIsNoSample() throws IOException {
+        apply(sample(READ, 0));
+        ObjectNode json = sample("2022-11-21T13:02:42.512093724Z", 1000);
+        json.remove("networks");
+        json.with("blkio_stats").remove("io_service_bytes_recursive");
+        WorkerStatistics missing = apply(json);
+
+        // kept, not dropped to 0
+        assertEquals(NETWORK_IN, missing.getNetworkIn());
+        assertEquals(NETWORK_OUT, missing.getNetworkOut());
+        assertEquals(BLOCK_IN, missing.getBlockIn());
+        assertEquals(BLOCK_OUT, missing.getBlockOut());
+        assertEquals(0f, missing.getNetworkInRate());
+        assertEquals(0f, missing.getBlockOutRate());
+
+        // compared with the last sample that had the sections, 2000 bytes over 2 seconds
+        WorkerStatistics sample = apply(sample("2022-11-21T13:02:43.512093724Z", 2000));
+        assertEquals(1000f, sample.getNetworkInRate(), 0.001f);
+        assertEquals(1000f, sample.getBlockOutRate(), 0.001f);
+    }
+
+    @Test
+    void forgottenContainerStartsOver() throws IOException {
+        apply(sample(READ, 0));
+        rates.forget(ID);
+        WorkerStatistics sample = apply(sample("2022-11-21T13:02:42.512093724Z", 1000));
+
+        assertEquals(0f, sample.getNetworkInRate());
+        assertEquals(0f, sample.getBlockInRate());
+    }
+
+    @Test
+    void parsesReadTimes() {
+        assertEquals(nanos("2022-11-21T13:02:41.512093724Z"), StatsRates.readTime("2022-11-21T13:02:41.512093724Z"));
+        assertEquals(nanos("2024-02-29T23:59:59Z"), StatsRates.readTime("2024-02-29T23:59:59Z"));
+        assertEquals(nanos("2022-11-21T12:02:41.5Z"), StatsRates.readTime("2022-11-21T13:02:41.5+01:00"));
+        assertEquals(nanos("2022-01-01T05:30:00Z"), StatsRates.readTime("2021-12-31T23:00:00-06:30"));
+        // the zero time of a stopped container, and what is not a time
+        assertEquals(Long.MIN_VALUE, StatsRates.readTime("0001-01-01T00:00:00Z"));
+        assertEquals(Long.MIN_VALUE, StatsRates.readTime(null));
+        assertEquals(Long.MIN_VALUE, StatsRates.readTime(""));
+        assertEquals(Long.MIN_VALUE, StatsRates.readTime("2022-11-21 13:02:41Z"));
+        assertEquals(Long.MIN_VALUE, StatsRates.readTime("2022-11-21T13:02:41"));
+        assertEquals(Long.MIN_VALUE, StatsRates.readTime("2022-11-21T1x:02:41Z"));
+    }
+
+    // the captured sample read at the given time, with the given number of bytes added to every counter
+    private static ObjectNode sample(String read, long added) throws IOException {
+        ObjectNode json = read();
+        json.put("read", read);
+        ObjectNode networks = json.with("networks");
+        ObjectNode eth0 = networks.with("eth0");
+        eth0.put("rx_bytes", eth0.get("rx_bytes").asLong() + added);
+        eth0.put("tx_bytes", eth0.get("tx_bytes").asLong() + added);
+        // one of the two devices
+        json.with("blkio_stats").withArray("io_service_bytes_recursive").forEach(entry -> {
+            if (entry.get("major").asInt() == 8 && entry.get("minor").asInt() == 0) {
+                ((ObjectNode) entry).put("value", entry.get("value").asLong() + added);
+            }
+        });
+        return json;
+    }
+
+    private WorkerStatistics apply(ObjectNode json) throws IOException {
+        Statistics statistics = MAPPER.treeToValue(json, Statistics.class);
+        WorkerStatistics sample = new WorkerStatistics();
+        DockerAPIService.extractStats(statistics, sample);
+        rates.apply(ID, statistics, sample);
+        return sample;
+    }
+
+    private static long nanos(String time) {
+        Instant instant = Instant.parse(time);
+        return TimeUnit.SECONDS.toNanos(instant.getEpochSecond()) + instant.getNano();
+    }
+
+    private static ObjectNode read() throws IOException {
+        try (InputStream in = StatsRatesTest.class.getResourceAsStream("/docker/stats-cgroup1.json")) {
+            return (ObjectNode) MAPPER.readTree(in);
+        }
+    }
+}
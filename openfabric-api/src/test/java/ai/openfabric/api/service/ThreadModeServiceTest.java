@@ -0,0 +1,70 @@
+package ai.openfabric.api.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * The threads of both modes, the virtual ones are only checked on a JDK that has them
+ */
+class ThreadModeServiceTest {
+
+    @Test
+    void platformThreads() throws Exception {
+        ThreadModeService threadModeService = new ThreadModeService(ThreadModeService.MODE_PLATFORM);
+
+        assertFalse(threadModeService.isVirtual());
+        Thread thread = threadModeService.threadFactory("test").newThread(() -> { });
+        assertFalse(isVirtual(thread));
+        assertEquals("test-0", thread.getName());
+        assertFalse(isVirtual(runOn(threadModeService.pool("test", 1))));
+    }
+
+    @Test
+    void virtualThreads() throws Exception {
+        ThreadModeService threadModeService = new ThreadModeService(ThreadModeService.MODE_VIRTUAL);
+        assumeTrue(threadModeService.isVirtual(), "virtual threads need JDK 21");
+
+        // through Thread.Builder
+        Thread thread = threadModeService.threadFactory("test").newThread(() -> { });
+        assertTrue(isVirtual(thread));
+        assertEquals("test-0", thread.getName());
+        // through Executors.newThreadPerTaskExecutor, however many the platform pool would have had
+        Thread pooled = runOn(threadModeService.pool("test", 1));
+        assertTrue(isVirtual(pooled));
+        assertTrue(pooled.getName().startsWith("test-"));
+
+        CompletableFuture<Thread> started = new CompletableFuture<>();
+        threadModeService.taskExecutor("task").execute(() -> started.complete(Thread.currentThread()));
+        assertTrue(isVirtual(started.get(10, TimeUnit.SECONDS)));
+    }
+
+    @Test
+    void unknownMode() {
+        assertThrows(IllegalArgumentException.class, () -> new ThreadModeService("green"));
+    }
+
+    private static boolean isVirtual(Thread thread) throws ReflectiveOperationException {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static Thread runOn(ExecutorService pool) throws Exception {
+        try {
+            return pool.submit(Thread::currentThread).get(10, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}